@@ -0,0 +1,34 @@
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Calls Work.run from the given jar until the JIT has compiled it, then reports the steady-state time per call,
+// so jars that only differ in their control flow guards can be compared against each other and the plain jar
+public class PredicateBenchmark {
+
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 30;
+    private static final int CALLS = 5000;
+    private static final int SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final URL jar = Path.of(args[0]).toUri().toURL();
+        final long[] times = new long[ROUNDS];
+        long sink = 0;
+
+        try (var loader = new URLClassLoader(new URL[] { jar }, null)) {
+            final Method run = Class.forName("Work", true, loader).getMethod("run", int.class);
+            for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+                final long begin = System.nanoTime();
+                for (int call = 0; call < CALLS; call++) sink += (long) run.invoke(null, SIZE + (call & 7));
+                if (round >= 0) times[round] = System.nanoTime() - begin;
+            }
+        }
+
+        Arrays.sort(times);
+        final double median = times[ROUNDS / 2] / (double) CALLS / 1e3;
+        System.out.printf("%.2f us per call (median of %d rounds, checksum %d)%n", median, ROUNDS, sink);
+    }
+}
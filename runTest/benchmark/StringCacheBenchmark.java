@@ -0,0 +1,56 @@
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Loads Strings from the given jar in a fresh class loader per round, so every string is used for the first time
+// while all threads ask for it at once, and reports how long the threads take to get through all of them
+public class StringCacheBenchmark {
+
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 30;
+
+    public static void main(String[] args) throws Exception {
+        final URL jar = Path.of(args[0]).toUri().toURL();
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long[] times = new long[ROUNDS];
+        int strings = 0;
+
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            try (var loader = new URLClassLoader(new URL[] { jar }, null)) {
+                final Class<?> clazz = Class.forName("Strings", true, loader);
+                final Method touch = clazz.getMethod("touch", int.class);
+                strings = clazz.getField("COUNT").getInt(null);
+
+                final CountDownLatch start = new CountDownLatch(1);
+                final Future<?>[] futures = new Future[threads];
+                final int count = strings;
+                for (int t = 0; t < threads; t++) {
+                    // Neighbouring threads start close to each other, so most strings are contended
+                    final int offset = t * (count / threads / 4 + 1);
+                    futures[t] = executor.submit(() -> {
+                        start.await();
+                        return touch.invoke(null, offset);
+                    });
+                }
+
+                final long begin = System.nanoTime();
+                start.countDown();
+                for (Future<?> future : futures) future.get();
+                if (round >= 0) times[round] = System.nanoTime() - begin;
+            }
+        }
+        executor.shutdown();
+
+        Arrays.sort(times);
+        final double median = times[ROUNDS / 2] / 1e6;
+        System.out.printf("%d threads, %d strings: first use took %.2f ms (median of %d), %.0f lookups/ms%n",
+                threads, strings, median, ROUNDS, (double) threads * strings / median);
+    }
+}
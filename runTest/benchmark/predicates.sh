@@ -0,0 +1,77 @@
+#!/bin/bash
+# Measures the steady-state cost of Light and Heavy control flow guards, with and without foldablePredicates.
+# Build first with "mvn package assembly:single", or point BOZAR_CP to another classpath of BozarXD.
+# Usage: predicates.sh
+cd "$(dirname "$0")" || exit 1
+CP=${BOZAR_CP:-$(ls ../../target/*-jar-with-auto-modules.jar 2>/dev/null | head -n 1)}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAVAC=${JAVA_HOME:+$JAVA_HOME/bin/}javac
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+cat > "$work/Work.java" << 'SOURCE'
+public class Work {
+    public static long run(int size) {
+        long result = 0;
+        for (int i = 0; i < size; i++) {
+            if ((i & 1) == 0) result += mix(i, result);
+            else result ^= step(i);
+            if (result < 0) result = -result;
+        }
+        return result;
+    }
+
+    private static long mix(int i, long value) {
+        long x = value * 31 + i;
+        return (x >>> 7) ^ (x << 3);
+    }
+
+    private static int step(int i) {
+        int sum = 0;
+        for (int j = 0; j < 8; j++) sum += (i + j) % 3 == 0 ? j : -j;
+        return sum;
+    }
+}
+SOURCE
+"$JAVAC" -d "$work/classes" "$work/Work.java" PredicateBenchmark.java || exit 1
+(cd "$work/classes" && "${JAVA_HOME:+$JAVA_HOME/bin/}jar" cf ../plain.jar Work.class)
+
+for flow in Light Heavy; do
+    for foldable in false true; do
+        cat > "$work/config.json" << CONFIG
+{
+  "input": "$work/plain.jar",
+  "output": "$work/$flow-$foldable.jar",
+  "exclude": "",
+  "libraries": [],
+  "options": {
+    "rename": "Off",
+    "lineNumbers": "Keep",
+    "localVariables": "Keep",
+    "controlFlowObfuscation": "$flow",
+    "constantObfuscation": "Off",
+    "paramObfuscation": "Off",
+    "watermarkOptions": {
+      "dummyClass": false,
+      "textInsideClass": false,
+      "ldcPop": false,
+      "zipComment": false,
+      "badAnno": false
+    },
+    "performanceOptions": {
+      "foldablePredicates": $foldable,
+      "controlFlowLoopPolicy": "Full"
+    }
+  }
+}
+CONFIG
+        "$JAVA" -cp "$CP" cn.jeyor1337.bozarxd.Main -config "$work/config.json" -console > /dev/null || exit 1
+    done
+done
+
+printf "%-24s" "Plain:"; "$JAVA" -cp "$work/classes" PredicateBenchmark "$work/plain.jar"
+for flow in Light Heavy; do
+    printf "%-24s" "$flow:"; "$JAVA" -cp "$work/classes" PredicateBenchmark "$work/$flow-false.jar"
+    printf "%-24s" "$flow, foldable:"; "$JAVA" -cp "$work/classes" PredicateBenchmark "$work/$flow-true.jar"
+done
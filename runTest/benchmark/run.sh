@@ -0,0 +1,66 @@
+#!/bin/bash
+# Measures parallel first use of Super encrypted strings, with per-class decryption and with the shared runtime.
+# Build first with "mvn package assembly:single", or point BOZAR_CP to another classpath of BozarXD.
+# Usage: run.sh [threads] [strings]
+cd "$(dirname "$0")" || exit 1
+CP=${BOZAR_CP:-$(ls ../../target/*-jar-with-auto-modules.jar 2>/dev/null | head -n 1)}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAVAC=${JAVA_HOME:+$JAVA_HOME/bin/}javac
+THREADS=${1:-64}
+STRINGS=${2:-1500}
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+{
+    echo "public class Strings {"
+    echo "    public static final int COUNT = $STRINGS;"
+    echo "    public static int touch(int offset) {"
+    echo "        int length = 0;"
+    echo "        for (int i = 0; i < COUNT; i++) length += get((i + offset) % COUNT).length();"
+    echo "        return length;"
+    echo "    }"
+    echo "    private static String get(int i) {"
+    echo "        switch (i) {"
+    for ((i = 0; i < STRINGS; i++)); do echo "            case $i: return \"benchmark string number $i\";"; done
+    echo "            default: return \"\";"
+    echo "        }"
+    echo "    }"
+    echo "}"
+} > "$work/Strings.java"
+"$JAVAC" -d "$work/classes" "$work/Strings.java" StringCacheBenchmark.java || exit 1
+(cd "$work/classes" && "${JAVA_HOME:+$JAVA_HOME/bin/}jar" cf ../plain.jar Strings.class)
+
+for runtime in false true; do
+    cat > "$work/config.json" << CONFIG
+{
+  "input": "$work/plain.jar",
+  "output": "$work/shared-$runtime.jar",
+  "exclude": "",
+  "libraries": [],
+  "options": {
+    "rename": "Off",
+    "lineNumbers": "Keep",
+    "localVariables": "Keep",
+    "controlFlowObfuscation": "Off",
+    "constantObfuscation": "Super",
+    "paramObfuscation": "Off",
+    "watermarkOptions": {
+      "dummyClass": false,
+      "textInsideClass": false,
+      "ldcPop": false,
+      "zipComment": false,
+      "badAnno": false
+    },
+    "performanceOptions": {
+      "sharedStringRuntime": $runtime
+    }
+  }
+}
+CONFIG
+    "$JAVA" -cp "$CP" cn.jeyor1337.bozarxd.Main -config "$work/config.json" -console > /dev/null || exit 1
+done
+
+echo -n "Plain:                 "; "$JAVA" -cp "$work/classes" StringCacheBenchmark "$work/plain.jar" "$THREADS"
+echo -n "Super:                 "; "$JAVA" -cp "$work/classes" StringCacheBenchmark "$work/shared-false.jar" "$THREADS"
+echo -n "Super, shared runtime: "; "$JAVA" -cp "$work/classes" StringCacheBenchmark "$work/shared-true.jar" "$THREADS"
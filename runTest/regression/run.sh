@@ -0,0 +1,39 @@
+#!/bin/bash
+# Obfuscates TEST.jar with every config in this directory and compares the test results with those of the original jar.
+# Build first with "mvn package assembly:single", or point BOZAR_CP to another classpath of BozarXD
+cd "$(dirname "$0")/.." || exit 1
+CP=${BOZAR_CP:-$(ls ../target/*-jar-with-auto-modules.jar 2>/dev/null | head -n 1)}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+
+results() {
+    timeout 120 "$JAVA" -jar "$1" 2>&1 | grep -E '^Test [0-9.]+:'
+}
+
+expected=$(results TEST.jar)
+failed=0
+for config in regression/*.json; do
+    log=$("$JAVA" -cp "$CP" cn.jeyor1337.bozarxd.Main -config "$config" -console 2>&1)
+    if grep -q "Cannot process class\|Cannot verify class\|Invalid classes present" <<< "$log"; then
+        echo "FAIL $config: invalid output"
+        grep "Cannot process class\|Cannot verify class" <<< "$log"
+        failed=1
+    elif ! diff <(echo "$expected") <(results regression/output.jar); then
+        echo "FAIL $config: test results differ"
+        failed=1
+    else
+        echo "OK   $config"
+    fi
+done
+rm -f regression/output.jar IK
+
+# Obfuscated class names in the mapping collide with words of the trace such as "at" and "by"
+retraced=$(mktemp)
+"$JAVA" -cp "$CP" cn.jeyor1337.bozarxd.Main -retrace regression/retrace/mapping.bin -input regression/retrace/crash.log -output "$retraced" > /dev/null
+if diff regression/retrace/crash-retraced.log "$retraced"; then
+    echo "OK   retrace"
+else
+    echo "FAIL retrace: retraced log differs"
+    failed=1
+fi
+rm -f "$retraced"
+exit $failed
@@ -1,12 +1,15 @@
 package cn.jeyor1337.bozarxd;
 
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
+import cn.jeyor1337.bozarxd.obfuscator.Retracer;
+import cn.jeyor1337.bozarxd.obfuscator.utils.MappingFile;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 import cn.jeyor1337.bozarxd.ui.ConfigManager;
 import org.apache.commons.cli.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class Main {
 
@@ -35,6 +38,41 @@ public class Main {
                 return;
             }
 
+            if(cmd.hasOption("retrace")) {
+                if(!cmd.hasOption("input") || !cmd.hasOption("output")) {
+                    System.err.println("Error: Retrace mode requires both -input and -output options");
+                    printUsage(options);
+                    System.exit(1);
+                    return;
+                }
+
+                File mappingFile = new File(cmd.getOptionValue("retrace"));
+                File input = new File(cmd.getOptionValue("input"));
+                if(!mappingFile.exists() || !input.exists()) {
+                    System.err.println("File not found: " + (mappingFile.exists() ? input : mappingFile).getAbsolutePath());
+                    System.exit(1);
+                }
+
+                Retracer retracer;
+                try {
+                    retracer = new Retracer(MappingFile.read(mappingFile.toPath()), input.toPath(), Path.of(cmd.getOptionValue("output")));
+                } catch (IOException e) {
+                    System.err.println("Failed to load mapping: " + e.getMessage());
+                    e.printStackTrace();
+                    System.exit(1);
+                    return;
+                }
+
+                try {
+                    retracer.run();
+                } catch (IOException e) {
+                    System.err.println("Failed to retrace: " + e.getMessage());
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                return;
+            }
+
             if(cmd.hasOption("console")) {
                 System.out.println("[BozarXD] Running in console mode...");
 
@@ -126,6 +164,7 @@ public class Main {
         options.addOption(new Option("cfg", "config", true, "JSON configuration file path"));
         options.addOption(new Option("noupdate", false, "Disable update version warnings"));
         options.addOption(new Option("c", "console", false, "Run without GUI, start obfuscation immediately"));
+        options.addOption(new Option("retrace", true, "Mapping file used to deobfuscate the log given by -input into -output"));
         options.addOption(new Option("init", false, "Generate template configuration file in current directory"));
         return options;
     }
@@ -4,16 +4,22 @@ import cn.jeyor1337.bozarxd.obfuscator.transformer.ClassTransformer;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.TransformManager;
 import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.BozarClassVerifier;
+import cn.jeyor1337.bozarxd.obfuscator.utils.MappingFile;
 import cn.jeyor1337.bozarxd.obfuscator.utils.StreamUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.StringUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
+import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig.BozarOptions.PerformanceOptions.VerificationLevel;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.CustomClassWriter;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.ResourceWrapper;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.BasicVerifier;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 import java.io.ByteArrayInputStream;
@@ -23,6 +29,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.jar.JarEntry;
@@ -106,6 +113,8 @@ public class Bozar implements Runnable {
                     }
                 });
 
+                final var verification = this.config.getOptions().getPerformanceOptions().getVerification();
+                long framedMethods = 0, recomputedFrames = 0, sampledClasses = 0;
                 for(ClassNode classNode : this.classes) {
 
                     if(!transformHandler.getClassTransformers().stream()
@@ -114,19 +123,29 @@ public class Bozar implements Runnable {
                         continue;
 
                     int flags = ClassWriter.COMPUTE_FRAMES;
+                    final boolean excluded = this.isExcluded(null, ASMUtils.getName(classNode));
+                    final boolean keepFrames = !excluded && this.config.getOptions().getPerformanceOptions().isKeepOriginalFrames();
 
-                    if(this.isExcluded(null, ASMUtils.getName(classNode)))
+                    if(excluded || keepFrames)
                         flags = ClassWriter.COMPUTE_MAXS;
 
                     var classWriter = new CustomClassWriter(this, flags, this.classLoader);
-                    var checkClassAdapter = new CheckClassAdapter(classWriter,true);
-
-                    classNode.methods.forEach(methodNode -> {
-                        methodNode.maxStack += 10; methodNode.maxLocals += 10;
-                    });
+                    ClassVisitor classVisitor = verification == VerificationLevel.OFF ? classWriter : new CheckClassAdapter(classWriter,false);
+                    final boolean sampled = this.isVerificationSampled(classNode.name);
+                    if(sampled) sampledClasses++;
 
                     try {
-                        classNode.accept(checkClassAdapter);
+                        // Exact max stack and locals, computed by the same data flow check CheckClassAdapter would run.
+                        // Without it the class writer still computes them
+                        if(verification.compareTo(VerificationLevel.DATAFLOW) >= 0 && sampled)
+                            for (MethodNode methodNode : classNode.methods)
+                                if (methodNode.instructions.size() > 0)
+                                    new Analyzer<>(new BasicVerifier()).analyzeAndComputeMaxs(classNode.name, methodNode);
+                        if(keepFrames) {
+                            framedMethods += classNode.methods.stream().filter(methodNode -> methodNode.instructions.size() > 0).count();
+                            recomputedFrames += this.computeChangedFrames(classNode);
+                        }
+                        classNode.accept(classVisitor);
                     } catch (Throwable t) {
                         err("Cannot process class: %s", classNode.name);
                         t.printStackTrace();
@@ -150,20 +169,34 @@ public class Bozar implements Runnable {
                 transformHandler.getClassTransformers().stream()
                         .filter(ClassTransformer::isEnabled)
                         .forEach(classTransformer -> classTransformer.transformOutput(out));
+
+                if(framedMethods > 0)
+                    log("Kept original frames of %d of %d methods", framedMethods - recomputedFrames, framedMethods);
+                if(verification.compareTo(VerificationLevel.DATAFLOW) >= 0 && sampledClasses < this.classes.size())
+                    log("Sampled %d of %d classes for verification", sampledClasses, this.classes.size());
+            }
+
+            final String mappingFile = this.config.getOptions().getPerformanceOptions().getMappingFile();
+            if(mappingFile != null && !mappingFile.isBlank() && !transformHandler.getMappings().isEmpty()) {
+                log("Writing mapping to %s", mappingFile);
+                MappingFile.fromRemap(transformHandler.getMappings()).write(Path.of(mappingFile));
             }
 
-            try {
-                log("Verifying JAR...");
-                boolean ignoreErrors = this.config.getOptions().isIgnoreVerifyErrors();
-                if(!BozarClassVerifier.verify(this, this.config.getOutput(), this.classLoader, ignoreErrors)) {
-                    if (!ignoreErrors) {
-                        err("Invalid classes present");
+            // Checks the output JAR as a whole, the write phase only checks each class on its own
+            if(this.config.getOptions().getPerformanceOptions().getVerification() == VerificationLevel.FULL) {
+                try {
+                    log("Verifying JAR...");
+                    boolean ignoreErrors = this.config.getOptions().isIgnoreVerifyErrors();
+                    if(!BozarClassVerifier.verify(this, this.config.getOutput(), this.classLoader, ignoreErrors, this::isVerificationSampled)) {
+                        if (!ignoreErrors) {
+                            err("Invalid classes present");
+                        }
+                    } else {
+                        log("JAR verified successfully!");
                     }
-                } else {
-                    log("JAR verified successfully!");
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
             }
 
             final String timeElapsed = new DecimalFormat("##.###").format(((double)System.currentTimeMillis() - (double)startTime) / 1000D);
@@ -177,6 +210,43 @@ public class Bozar implements Runnable {
         }
     }
 
+    // Frames of changed methods come from a copy of the class holding only those methods,
+    // the other methods keep the frames they were read with and need no common super class lookups
+    private int computeChangedFrames(ClassNode classNode) {
+        final List<MethodNode> changed = classNode.methods.stream()
+                .filter(methodNode -> methodNode.instructions.size() > 0)
+                .filter(methodNode -> this.transformHandler.isCodeChanged(classNode, methodNode))
+                .toList();
+        if(changed.isEmpty()) return 0;
+
+        final var partial = new ClassNode();
+        partial.version = classNode.version;
+        partial.access = classNode.access;
+        partial.name = classNode.name;
+        partial.superName = classNode.superName;
+        partial.interfaces = classNode.interfaces;
+        partial.methods.addAll(changed);
+
+        final var classWriter = new CustomClassWriter(this, ClassWriter.COMPUTE_FRAMES, this.classLoader);
+        partial.accept(classWriter);
+        final var computed = new ClassNode();
+        new ClassReader(classWriter.toByteArray()).accept(computed, 0);
+
+        for(int i = 0; i < changed.size(); i++)
+            classNode.methods.set(classNode.methods.indexOf(changed.get(i)), computed.methods.get(i));
+        return changed.size();
+    }
+
+    // Decided by the class name so that both verification phases check the same classes
+    private boolean isVerificationSampled(String className) {
+        final double rate = this.config.getOptions().getPerformanceOptions().getVerificationSampleRate();
+        if(rate >= 1 || this.transformHandler.getUnstableClasses().contains(className)) return true;
+        // Short generated names have nearly equal hash codes, so they are spread before taking the share
+        int hash = className.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, 10000) < rate * 10000;
+    }
+
     public boolean isExcluded(ClassTransformer classTransformer, final String str) {
         String normalized = str.replace("/", ".");
 
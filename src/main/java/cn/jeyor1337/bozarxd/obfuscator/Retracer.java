@@ -0,0 +1,183 @@
+package cn.jeyor1337.bozarxd.obfuscator;
+
+import cn.jeyor1337.bozarxd.obfuscator.utils.MappingFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+public class Retracer {
+
+    private static final int CHUNK_SIZE = 4 << 20;
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    private final Path input;
+    private final Path output;
+    private final Map<String, String> classes = new HashMap<>();
+    private final Map<String, Map<String, String>> members = new HashMap<>();
+    private int maxTokenLength;
+
+    public Retracer(MappingFile mappingFile, Path input, Path output) {
+        this.input = input;
+        this.output = output;
+
+        for (MappingFile.ClassMapping classMapping : mappingFile.getClasses()) {
+            String obfName = classMapping.obfName().replace('/', '.');
+            this.classes.put(obfName, classMapping.originalName().replace('/', '.'));
+            this.members.put(obfName, classMapping.members().stream()
+                    .collect(Collectors.groupingBy(MappingFile.MemberMapping::obfName,
+                            Collectors.mapping(MappingFile.MemberMapping::originalName,
+                                    Collectors.collectingAndThen(Collectors.toCollection(TreeSet::new), set -> String.join("|", set))))));
+            int memberLength = classMapping.members().stream().mapToInt(member -> member.obfName().length()).max().orElse(0);
+            this.maxTokenLength = Math.max(this.maxTokenLength, obfName.length() + 1 + memberLength);
+        }
+    }
+
+    // A failed run deletes the output, so no truncated log is left behind
+    public void run() throws IOException {
+        final long startTime = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        boolean opened = false;
+        try (var in = FileChannel.open(this.input, StandardOpenOption.READ);
+             var out = FileChannel.open(this.output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            opened = true;
+
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+                int length = window.limit();
+                if (position + length < size)
+                    length = lastBoundary(window, 0, length);
+
+                final List<Future<ByteBuffer>> chunks = new ArrayList<>();
+                int chunkStart = 0;
+                while (chunkStart < length) {
+                    int chunkEnd = chunkStart + CHUNK_SIZE >= length ? length : lastBoundary(window, chunkStart, chunkStart + CHUNK_SIZE);
+                    final ByteBuffer chunk = window.slice(chunkStart, chunkEnd - chunkStart);
+                    chunks.add(executor.submit(() -> this.retrace(chunk)));
+                    chunkStart = chunkEnd;
+                }
+
+                for (Future<ByteBuffer> chunk : chunks) {
+                    ByteBuffer bytes = chunk.get();
+                    while (bytes.hasRemaining()) out.write(bytes);
+                }
+                position += length;
+            }
+
+            final double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000D;
+            System.out.printf("[BozarXD] Retraced %d bytes in %.3fs (%.1f MB/s)%n", size, seconds, size / seconds / (1 << 20));
+        } catch (IOException e) {
+            if (opened) Files.deleteIfExists(this.output);
+            throw e;
+        } catch (ExecutionException e) {
+            Files.deleteIfExists(this.output);
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Files.deleteIfExists(this.output);
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Cuts at a line end, or for lines longer than a chunk after an ASCII separator,
+    // which is never part of a token or of a multi-byte UTF-8 sequence
+    private static int lastBoundary(ByteBuffer buffer, int from, int to) {
+        for (int i = to - 1; i >= from; i--)
+            if (buffer.get(i) == '\n') return i + 1;
+        for (int i = to - 1; i >= from; i--) {
+            final byte b = buffer.get(i);
+            if (b >= 0 && b != '.' && !Character.isJavaIdentifierPart(b)) return i + 1;
+        }
+
+        // Without any separator at least the last UTF-8 sequence is kept whole
+        int lead = to - 1;
+        while (lead > from && (buffer.get(lead) & 0xC0) == 0x80) lead--;
+        final int b = buffer.get(lead) & 0xFF;
+        final int length = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+        return lead > from && lead + length > to ? lead : to;
+    }
+
+    private ByteBuffer retrace(ByteBuffer chunk) {
+        final CharSequence text = StandardCharsets.UTF_8.decode(chunk);
+        final StringBuilder sb = new StringBuilder(text.length() + (text.length() >> 3));
+
+        int i = 0, lineStart = 0;
+        final int length = text.length();
+        while (i < length) {
+            if (!Character.isJavaIdentifierStart(text.charAt(i))) {
+                if (text.charAt(i) == '\n') lineStart = i + 1;
+                sb.append(text.charAt(i++));
+                continue;
+            }
+
+            int start = i;
+            while (i < length && (Character.isJavaIdentifierPart(text.charAt(i))
+                    || (text.charAt(i) == '.' && i + 1 < length && Character.isJavaIdentifierStart(text.charAt(i + 1)))))
+                i++;
+            if (i - start > this.maxTokenLength) sb.append(text, start, i);
+            else this.appendToken(sb, text.subSequence(start, i).toString(), isClassPosition(text, lineStart, start, i));
+        }
+        return StandardCharsets.UTF_8.encode(sb.toString());
+    }
+
+    // Unqualified names are only rewritten where a stack trace puts an exception class,
+    // short obfuscated names such as "at" or "by" are also words of the trace itself
+    private static boolean isClassPosition(CharSequence text, int lineStart, int start, int end) {
+        if (end < text.length() && text.charAt(end) != ':' && text.charAt(end) != '\r' && text.charAt(end) != '\n')
+            return false;
+
+        // The prefix is compared in place, copying it would make long lines quadratic
+        int from = lineStart, to = start;
+        while (from < to && Character.isWhitespace(text.charAt(from))) from++;
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) to--;
+        return from == to || regionEquals(text, from, to, "Caused by:") || regionEquals(text, from, to, "Suppressed:")
+                || (to - from > 21 && regionEquals(text, from, from + 21, "Exception in thread \"") && text.charAt(to - 1) == '"');
+    }
+
+    private static boolean regionEquals(CharSequence text, int from, int to, String expected) {
+        if (to - from != expected.length()) return false;
+        for (int i = 0; i < expected.length(); i++)
+            if (text.charAt(from + i) != expected.charAt(i)) return false;
+        return true;
+    }
+
+    private void appendToken(StringBuilder sb, String token, boolean classPosition) {
+        String className = token.indexOf('.') < 0 && !classPosition ? null : this.classes.get(token);
+        if (className != null) {
+            sb.append(className);
+            return;
+        }
+
+        int dot = token.lastIndexOf('.');
+        if (dot > 0) {
+            String owner = token.substring(0, dot);
+            Map<String, String> ownerMembers = this.members.get(owner);
+            if (ownerMembers != null) {
+                String member = token.substring(dot + 1);
+                sb.append(this.classes.get(owner)).append('.').append(ownerMembers.getOrDefault(member, member));
+                return;
+            }
+        }
+        sb.append(token);
+    }
+}
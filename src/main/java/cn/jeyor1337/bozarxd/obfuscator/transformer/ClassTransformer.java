@@ -1,19 +1,27 @@
 package cn.jeyor1337.bozarxd.obfuscator.transformer;
 
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
+import cn.jeyor1337.bozarxd.obfuscator.utils.LoopUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.ResourceWrapper;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.jar.JarOutputStream;
 import java.util.stream.Collectors;
 
@@ -26,6 +34,8 @@ public abstract class ClassTransformer implements Opcodes {
     @Getter
     private final BozarCategory category;
     protected final Random random = new Random();
+    @Setter(AccessLevel.PACKAGE)
+    private boolean degraded;
 
     public ClassTransformer(Bozar bozar, String text, BozarCategory category) {
         this.bozar = bozar;
@@ -38,6 +48,8 @@ public abstract class ClassTransformer implements Opcodes {
     public void transformClass(ClassNode classNode) {}
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {}
     public void transformField(ClassNode classNode, FieldNode fieldNode) {}
+    // Called once the manager restored the code of a method, to drop what transformMethod registered for it
+    public void rollbackMethod(ClassNode classNode, MethodNode methodNode) {}
     public void transformResource(ResourceWrapper resource) {}
     public boolean transformOutput(ClassNode classNode) { return true; }
     public void transformOutput(JarOutputStream jarOutputStream) {}
@@ -45,6 +57,11 @@ public abstract class ClassTransformer implements Opcodes {
 
     public abstract BozarConfig.EnableType getEnableType();
 
+    // True when the injected code runs at runtime; such transformers are kept out of profiled hot methods
+    public boolean hasRuntimeCost() {
+        return false;
+    }
+
     public boolean isEnabled() {
         return this.getEnableType().isEnabled().get();
     }
@@ -53,6 +70,32 @@ public abstract class ClassTransformer implements Opcodes {
         return this.getClass().getSimpleName();
     }
 
+    protected BozarConfig.BozarOptions.PerformanceOptions getPerformanceOptions() {
+        return this.getBozar().getConfig().getOptions().getPerformanceOptions();
+    }
+
+    // Classes an unstable transformer creates or changes are verified even when verification is sampled
+    public boolean isUnstable() {
+        return false;
+    }
+
+    // Degradable transformers treat the whole method like a loop body while degraded
+    public boolean isDegradable() {
+        return false;
+    }
+
+    protected BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy getLoopPolicy(BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy policy) {
+        if (this.degraded && policy == BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy.FULL)
+            return BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy.LIGHT;
+        return policy;
+    }
+
+    protected Set<AbstractInsnNode> getLoopInstructions(MethodNode methodNode, BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy policy) {
+        if (this.degraded) return new HashSet<>(Arrays.asList(methodNode.instructions.toArray()));
+        if (policy == BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy.FULL) return Collections.emptySet();
+        return LoopUtils.getLoopInstructions(methodNode);
+    }
+
     protected boolean isSuperPresent(ClassNode classNode) {
         return classNode.superName != null && !classNode.superName.equals("java/lang/Object");
     }
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -21,6 +22,47 @@ public abstract class ControlFlowTransformer extends ClassTransformer {
         super(bozar, text, category);
     }
 
+    private record FlowField(ClassNode owner, FieldNode fieldNode, long value) { }
+    private final List<FlowField> foldableFlowFields = new ArrayList<>();
+
+    protected FieldNode createFlowField(ClassNode classNode, int access, String name, long value) {
+        if(!this.getPerformanceOptions().isFoldablePredicates())
+            return new FieldNode(access | ACC_STATIC, name, "J", null, value);
+
+        // The JIT trusts static finals once the holder is initialized, so the predicates fold away in compiled code.
+        // The value is assigned from <clinit> rather than a ConstantValue attribute to keep it out of static sight
+        var fieldNode = new FieldNode(access | ACC_STATIC | ACC_FINAL, name, "J", null, null);
+        this.foldableFlowFields.add(new FlowField(classNode, fieldNode, value));
+        return fieldNode;
+    }
+
+    protected boolean isGuardAllowed(Set<AbstractInsnNode> loopInsns, AbstractInsnNode insn) {
+        if (!loopInsns.contains(insn)) return true;
+        return switch (this.getLoopPolicy(this.getPerformanceOptions().getControlFlowLoopPolicy())) {
+            case SKIP -> false;
+            case LIGHT -> random.nextInt(4) == 0;
+            case FULL -> true;
+        };
+    }
+
+    @Override
+    public void post() {
+        // Injected last so no guard in <clinit> can read the field before it is assigned
+        this.foldableFlowFields.forEach(flowField -> {
+            long key = random.nextLong();
+            int shift = 1 + random.nextInt(63);
+            ASMUtils.findOrCreateClinit(flowField.owner()).instructions.insert(InsnBuilder.createEmpty().insn(
+                    ASMUtils.pushLong(Long.rotateRight(flowField.value() ^ key, shift)),
+                    ASMUtils.pushInt(shift),
+                    new MethodInsnNode(INVOKESTATIC, "java/lang/Long", "rotateLeft", "(JI)J", false),
+                    ASMUtils.pushLong(key),
+                    new InsnNode(LXOR),
+                    new FieldInsnNode(PUTSTATIC, flowField.owner().name, flowField.fieldNode().name, "J")
+            ).getInsnList());
+        });
+        this.foldableFlowFields.clear();
+    }
+
     protected static final record SwitchBlock(LabelNode labelNode, InsnList insnList) {
         public SwitchBlock() {
             this(new LabelNode(), new InsnList());
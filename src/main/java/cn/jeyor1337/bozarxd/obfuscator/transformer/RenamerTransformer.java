@@ -1,12 +1,16 @@
 package cn.jeyor1337.bozarxd.obfuscator.transformer;
 
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
+import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.StringUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
+import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -21,14 +25,36 @@ public abstract class RenamerTransformer extends ClassTransformer {
     }
 
     protected String registerMap(String key) {
-        var str = switch (this.getBozar().getConfig().getOptions().getRename()) {
+        var str = this.generateName(index);
+        map.put(key, str); index++;
+        return str;
+    }
+
+    private String generateName(int index) {
+        return switch (this.getBozar().getConfig().getOptions().getRename()) {
             case ALPHABET -> StringUtils.getAlphabetCombinations().get(index);
             case INVISIBLE -> String.valueOf((char)(index + '\u3050'));
             case IlIlIlIlIl -> getRandomUniqueIl(400);
             default -> throw new IllegalStateException("transformClass called while rename is disabled, this shouldn't happen");
         };
-        map.put(key, str); index++;
-        return str;
+    }
+
+    public void rankByReferences(Map<String, Integer> references) {
+        if (this.getBozar().getConfig().getOptions().getRename() == BozarConfig.BozarOptions.RenameOption.IlIlIlIlIl) return;
+
+        var weights = new LinkedHashMap<String, Integer>();
+        map.forEach((key, value) -> weights.merge(value, references.getOrDefault(key, 0), Integer::sum));
+
+        var ranked = weights.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .map(Map.Entry::getKey)
+                .toList();
+
+        var renamed = new HashMap<String, String>();
+        for (int i = 0; i < ranked.size(); i++)
+            renamed.put(ranked.get(i), ASMUtils.parentName(ranked.get(i)) + this.generateName(i));
+        map.replaceAll((key, value) -> renamed.get(value));
+        index = ranked.size();
     }
 
     private final List<String> IlList = new ArrayList<>();
@@ -11,23 +11,42 @@ import cn.jeyor1337.bozarxd.obfuscator.transformer.impl.watermark.TextInsideClas
 import cn.jeyor1337.bozarxd.obfuscator.transformer.impl.watermark.UnusedStringTransformer;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.impl.watermark.ZipCommentTransformer;
 import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
+import cn.jeyor1337.bozarxd.obfuscator.utils.ClassHierarchy;
+import cn.jeyor1337.bozarxd.obfuscator.utils.JfrProfile;
+import cn.jeyor1337.bozarxd.obfuscator.utils.MethodSplitter;
+import cn.jeyor1337.bozarxd.obfuscator.utils.PeepholeOptimizer;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
+import cn.jeyor1337.bozarxd.obfuscator.utils.model.MethodCost;
 import lombok.Getter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.SimpleRemapper;
-import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Getter
 public class TransformManager {
 
+    // Heavy control flow grows a method up to about 40 times, shorter methods cannot reach the 64 KB limit in one pass
+    private static final int SNAPSHOT_INSTRUCTIONS = 256;
+
     private final Bozar bozar;
     private final List<ClassTransformer> classTransformers = new ArrayList<>();
+    private final Map<String, String> mappings = new HashMap<>();
+    private final Set<String> hotMethods = new HashSet<>();
+    private final Set<String> budgetHits = new LinkedHashSet<>();
+    private final Map<MethodNode, MethodCost> originalCosts = new IdentityHashMap<>();
+    private final Map<MethodNode, Integer> splitWeights = new IdentityHashMap<>();
+    private final Map<MethodNode, Long> originalCode = new IdentityHashMap<>();
+    private final Set<String> unstableClasses = new HashSet<>();
+    private ClassHierarchy classHierarchy;
+    private int hierarchyClassCount;
 
     public TransformManager(Bozar bozar) {
         this.bozar = bozar;
@@ -86,7 +105,13 @@ public class TransformManager {
 
     public void transformAll() {
 
-        var map = new HashMap<String, String>();
+        var map = this.mappings;
+        final String profile = this.bozar.getConfig().getOptions().getPerformanceOptions().getProfile();
+        if(profile != null && !profile.isBlank())
+            this.loadProfile(Path.of(profile));
+
+        final Map<String, Integer> references = this.bozar.getConfig().getOptions().getPerformanceOptions().isFrequencyRenaming()
+                ? this.countReferences() : null;
         this.classTransformers.stream()
                 .filter(ClassTransformer::isEnabled)
                 .filter(ct -> ct instanceof RenamerTransformer)
@@ -94,6 +119,7 @@ public class TransformManager {
                 .forEach(crt -> {
                     this.bozar.log("Applying renamer %s", crt.getName());
                     this.bozar.getClasses().forEach(classNode -> this.transform(classNode, crt.getClass()));
+                    if(references != null) crt.rankByReferences(references);
                     this.bozar.getResources().forEach(crt::transformResource);
                     map.putAll(crt.map);
                 });
@@ -108,8 +134,22 @@ public class TransformManager {
                 classNode.accept(adapter);
                 this.bozar.getClasses().set(i, remappedClassNode);
             }
+
+            final var remappedHotMethods = this.hotMethods.stream().map(key -> {
+                int descIndex = key.indexOf('(');
+                int dotIndex = key.lastIndexOf('.', descIndex);
+                String owner = key.substring(0, dotIndex), name = key.substring(dotIndex + 1, descIndex), desc = key.substring(descIndex);
+                return reMapper.mapType(owner) + "." + reMapper.mapMethodName(owner, name, desc) + reMapper.mapMethodDesc(desc);
+            }).toList();
+            this.hotMethods.clear();
+            this.hotMethods.addAll(remappedHotMethods);
         }
 
+        // Taken after renaming, which rewrites frames along with the code
+        if(this.bozar.getConfig().getOptions().getPerformanceOptions().isKeepOriginalFrames())
+            this.bozar.getClasses().forEach(classNode -> classNode.methods
+                    .forEach(methodNode -> this.originalCode.put(methodNode, ASMUtils.getCodeFingerprint(classNode, methodNode))));
+
         this.classTransformers.stream()
                 .filter(ClassTransformer::isEnabled)
                 .forEach(ClassTransformer::pre);
@@ -119,13 +159,62 @@ public class TransformManager {
             .filter(ct -> !(ct instanceof RenamerTransformer))
             .forEach(ct -> {
                 this.bozar.log("Applying %s", ct.getName());
-                this.bozar.getClasses().forEach(classNode -> this.transform(classNode, ct.getClass()));
-                this.bozar.getResources().forEach(ct::transformResource);
+                this.classHierarchy = null;
+                this.trackUnstable(ct, () -> {
+                    this.bozar.getClasses().forEach(classNode -> this.transform(classNode, ct.getClass()));
+                    this.bozar.getResources().forEach(ct::transformResource);
+                });
         });
 
         this.classTransformers.stream()
                 .filter(ClassTransformer::isEnabled)
-                .forEach(ClassTransformer::post);
+                .forEach(ct -> this.trackUnstable(ct, ct::post));
+
+        if(this.bozar.getConfig().getOptions().getPerformanceOptions().isPeepholeOptimization())
+            this.optimize();
+
+        if(!this.budgetHits.isEmpty())
+            this.bozar.log("%d methods hit the JIT size or runtime cost budget", this.budgetHits.size());
+    }
+
+    // Runs after post() so that the code it adds is optimized as well
+    private void optimize() {
+        int methods = 0, savedBytes = 0;
+        for (ClassNode classNode : this.bozar.getClasses()) {
+            for (MethodNode methodNode : classNode.methods) {
+                if (this.bozar.isExcluded(null, ASMUtils.getName(classNode, methodNode))) continue;
+                final int before = ASMUtils.getCodeSize(methodNode);
+                if (!PeepholeOptimizer.optimize(classNode, methodNode)) continue;
+                methods++;
+                savedBytes += before - ASMUtils.getCodeSize(methodNode);
+            }
+        }
+        this.bozar.log("Peephole optimizer removed %d bytes from %d methods", savedBytes, methods);
+    }
+
+    // Method and instruction counts are enough to notice which classes a pass created or changed
+    private void trackUnstable(ClassTransformer classTransformer, Runnable pass) {
+        if (!classTransformer.isUnstable()) {
+            pass.run();
+            return;
+        }
+
+        final Map<ClassNode, Long> shapes = new IdentityHashMap<>();
+        this.bozar.getClasses().forEach(classNode -> shapes.put(classNode, getShape(classNode)));
+        pass.run();
+        this.bozar.getClasses().stream()
+                .filter(classNode -> !Objects.equals(shapes.get(classNode), getShape(classNode)))
+                .forEach(classNode -> this.unstableClasses.add(classNode.name));
+    }
+
+    private static long getShape(ClassNode classNode) {
+        return ((long) classNode.methods.size() << 32) + classNode.methods.stream().mapToLong(methodNode -> methodNode.instructions.size()).sum();
+    }
+
+    // True for methods a transformer created or whose code it changed since renaming
+    public boolean isCodeChanged(ClassNode classNode, MethodNode methodNode) {
+        final Long fingerprint = this.originalCode.get(methodNode);
+        return fingerprint == null || fingerprint != ASMUtils.getCodeFingerprint(classNode, methodNode);
     }
 
     public void transform(ClassNode classNode, Class<? extends ClassTransformer> transformerClass) {
@@ -133,20 +222,189 @@ public class TransformManager {
         if(this.bozar.isExcluded(classTransformer, ASMUtils.getName(classNode))) return;
 
         classTransformer.transformClass(classNode);
+        final List<MethodNode> helpers = new ArrayList<>();
+        final var performanceOptions = this.bozar.getConfig().getOptions().getPerformanceOptions();
+        final boolean tracked = performanceOptions.isMethodSplitting() || performanceOptions.getJitSizeBudget() > 0
+                || performanceOptions.getMethodCostBudget() > 0 || performanceOptions.getMethodCostRatio() > 0;
         classNode.fields.stream()
                 .filter(fieldNode -> !this.bozar.isExcluded(classTransformer, ASMUtils.getName(classNode, fieldNode)))
                 .forEach(fieldNode -> classTransformer.transformField(classNode, fieldNode));
         classNode.methods.stream()
                 .filter(methodNode -> !this.bozar.isExcluded(classTransformer, ASMUtils.getName(classNode, methodNode)))
+                .filter(methodNode -> !classTransformer.hasRuntimeCost() || !this.isHotMethod(classNode, methodNode))
                 .forEach(methodNode -> {
-            AbstractInsnNode[] insns = methodNode.instructions.toArray().clone();
+            // Costs and a deep copy are only taken when budgets or splitting may roll the method back, or when it may outgrow 64 KB.
+            // Other methods keep the cheap copy of the instruction array
+            final MethodCost before = tracked ? MethodCost.of(methodNode) : null;
+            final MethodCost original = tracked ? this.originalCosts.computeIfAbsent(methodNode, k -> before) : null;
+            final MethodNode snapshot = tracked || methodNode.instructions.size() > SNAPSHOT_INSTRUCTIONS ? ASMUtils.copyCode(methodNode) : null;
+            final AbstractInsnNode[] insns = snapshot == null ? methodNode.instructions.toArray() : null;
+            final List<TryCatchBlockNode> tryCatchBlocks = snapshot == null ? new ArrayList<>(methodNode.tryCatchBlocks) : null;
+            final int helperCount = helpers.size();
+            final Runnable rollback = () -> {
+                if (snapshot != null) {
+                    ASMUtils.restoreCode(methodNode, snapshot);
+                } else {
+                    methodNode.instructions = ASMUtils.arrayToList(insns);
+                    methodNode.tryCatchBlocks = tryCatchBlocks;
+                }
+                helpers.subList(helperCount, helpers.size()).clear();
+                classTransformer.rollbackMethod(classNode, methodNode);
+            };
+            final String methodName = classNode.name + "." + methodNode.name + methodNode.desc;
+
             classTransformer.transformMethod(classNode, methodNode);
 
+            if (performanceOptions.isMethodSplitting()) {
+                final int sizeLimit = this.getSizeLimit(before);
+                if (ASMUtils.getCodeSize(methodNode) > sizeLimit
+                        && MethodSplitter.split(classNode, methodNode, this.getClassHierarchy(), sizeLimit, helpers)) {
+                    this.unstableClasses.add(classNode.name);
+                    this.bozar.log("Split \"%s\" into %d helpers after applying \"%s\"", methodName, helpers.size() - helperCount, classTransformer.getName());
+                }
+            }
+
+            // Split methods keep all of their constants, which may not fit in the constant pool any more
+            if (helpers.size() > helperCount && !ASMUtils.isClassSizeValid(classNode, helpers)) {
+                this.bozar.log("Cannot apply \"%s\" on \"%s\" due to low class capacity", classTransformer.getName(), methodName);
+                rollback.run();
+                return;
+            }
+
             if (!ASMUtils.isMethodSizeValid(methodNode)) {
-                this.bozar.log("Cannot apply \"%s\" on \"%s\" due to low method capacity", classTransformer.getName(), classNode.name + "." + methodNode.name + methodNode.desc);
-                methodNode.instructions = ASMUtils.arrayToList(insns);
+                this.bozar.log("Cannot apply \"%s\" on \"%s\" due to low method capacity", classTransformer.getName(), methodName);
+                rollback.run();
+                return;
             }
+
+            if (!tracked) return;
+
+            String budget = this.getExceededBudget(methodNode, helpers.subList(helperCount, helpers.size()), before, original);
+            if (budget == null) {
+                helpers.subList(helperCount, helpers.size()).forEach(helper -> this.splitWeights.merge(methodNode, MethodCost.of(helper).weight(), Integer::sum));
+                return;
+            }
+
+            rollback.run();
+            this.budgetHits.add(methodName);
+            if (classTransformer.isDegradable()) {
+                classTransformer.setDegraded(true);
+                classTransformer.transformMethod(classNode, methodNode);
+                classTransformer.setDegraded(false);
+                if (this.getExceededBudget(methodNode, helpers.subList(helperCount, helpers.size()), before, original) == null) {
+                    this.bozar.log("Degraded \"%s\" on \"%s\" to stay within the %s", classTransformer.getName(), methodName, budget);
+                    return;
+                }
+                rollback.run();
+            }
+            this.bozar.log("Cannot apply \"%s\" on \"%s\" due to the %s", classTransformer.getName(), methodName, budget);
         });
+        classNode.methods.addAll(helpers);
+    }
+
+    // Methods that HotSpot could compile should stay compilable, others only have to stay valid
+    private int getSizeLimit(MethodCost before) {
+        final int jitBudget = this.bozar.getConfig().getOptions().getPerformanceOptions().getJitSizeBudget();
+        return jitBudget > 0 && before.bytes() <= jitBudget ? jitBudget : 65535;
+    }
+
+    // Built once per transformer pass, and again when the pass added classes
+    private ClassHierarchy getClassHierarchy() {
+        if (this.classHierarchy == null || this.hierarchyClassCount != this.bozar.getClasses().size()) {
+            this.classHierarchy = new ClassHierarchy(this.bozar.getClasses(), this.bozar.getClassLoader());
+            this.hierarchyClassCount = this.bozar.getClasses().size();
+        }
+        return this.classHierarchy;
+    }
+
+    private String getExceededBudget(MethodNode methodNode, List<MethodNode> addedHelpers, MethodCost before, MethodCost original) {
+        final var performanceOptions = this.bozar.getConfig().getOptions().getPerformanceOptions();
+        final MethodCost after = MethodCost.of(methodNode);
+
+        // HotSpot never compiles methods above HugeMethodLimit, so keep methods that could be compiled compilable
+        final int jitBudget = performanceOptions.getJitSizeBudget();
+        if (jitBudget > 0 && before.bytes() <= jitBudget && after.bytes() > jitBudget)
+            return "JIT size budget";
+
+        // The cost budget is shared by all transformers in order, measured against the method before the first one.
+        // Helpers split off the method still run on every call, so their cost counts for the method
+        final int splitWeight = this.splitWeights.getOrDefault(methodNode, 0);
+        final int addedCost = addedHelpers.stream().mapToInt(helper -> MethodCost.of(helper).weight()).sum() + splitWeight + after.weight() - original.weight();
+        if (addedCost <= splitWeight + before.weight() - original.weight()) return null;
+        if (performanceOptions.getMethodCostBudget() > 0 && addedCost > performanceOptions.getMethodCostBudget())
+            return "runtime cost budget";
+        if (performanceOptions.getMethodCostRatio() > 0 && addedCost > original.weight() * performanceOptions.getMethodCostRatio())
+            return "runtime cost budget";
+        return null;
+    }
+
+    public boolean isHotMethod(ClassNode classNode, MethodNode methodNode) {
+        return !this.hotMethods.isEmpty() && this.hotMethods.contains(classNode.name + "." + methodNode.name + methodNode.desc);
+    }
+
+    private void loadProfile(Path path) {
+        try {
+            final var jfrProfile = JfrProfile.read(path);
+            this.hotMethods.addAll(jfrProfile.getHotMethods(this.bozar.getConfig().getOptions().getPerformanceOptions().getHotMethodCoverage(),
+                    this.bozar.getClasses().stream().map(classNode -> classNode.name).collect(Collectors.toSet())));
+            this.bozar.log("Loaded profile with %d samples, %d hot methods only get cheap transformers", jfrProfile.getTotalSamples(), this.hotMethods.size());
+        } catch (IOException e) {
+            this.bozar.err("Cannot read profile: %s", path);
+            e.printStackTrace();
+        }
+    }
+
+    private Map<String, Integer> countReferences() {
+        final var references = new HashMap<String, Integer>();
+        final Consumer<String> countType = desc -> {
+            Type type = Type.getType(desc);
+            while (type.getSort() == Type.ARRAY) type = type.getElementType();
+            if (type.getSort() == Type.OBJECT) references.merge(type.getInternalName(), 1, Integer::sum);
+        };
+        final Consumer<String> countMethodDesc = desc -> {
+            Arrays.stream(Type.getArgumentTypes(desc)).map(Type::getDescriptor).forEach(countType);
+            countType.accept(Type.getReturnType(desc).getDescriptor());
+        };
+
+        for (ClassNode classNode : this.bozar.getClasses()) {
+            if (classNode.superName != null) references.merge(classNode.superName, 1, Integer::sum);
+            classNode.interfaces.forEach(name -> references.merge(name, 1, Integer::sum));
+            classNode.fields.forEach(fieldNode -> countType.accept(fieldNode.desc));
+
+            for (MethodNode methodNode : classNode.methods) {
+                countMethodDesc.accept(methodNode.desc);
+                for (AbstractInsnNode insn : methodNode.instructions) {
+                    if (insn instanceof MethodInsnNode methodInsn) {
+                        references.merge(methodInsn.owner + "." + methodInsn.name + methodInsn.desc, 1, Integer::sum);
+                        references.merge(methodInsn.owner, 1, Integer::sum);
+                        countMethodDesc.accept(methodInsn.desc);
+                    } else if (insn instanceof FieldInsnNode fieldInsn) {
+                        references.merge(fieldInsn.owner + "." + fieldInsn.name, 1, Integer::sum);
+                        references.merge(fieldInsn.owner, 1, Integer::sum);
+                        countType.accept(fieldInsn.desc);
+                    } else if (insn instanceof TypeInsnNode typeInsn) {
+                        references.merge(typeInsn.desc, 1, Integer::sum);
+                    } else if (insn instanceof MultiANewArrayInsnNode arrayInsn) {
+                        countType.accept(arrayInsn.desc);
+                    } else if (insn instanceof LdcInsnNode ldc && ldc.cst instanceof Type type && type.getSort() != Type.METHOD) {
+                        countType.accept(type.getDescriptor());
+                    } else if (insn instanceof InvokeDynamicInsnNode indy) {
+                        countMethodDesc.accept(indy.desc);
+                        Arrays.stream(indy.bsmArgs)
+                                .filter(arg -> arg instanceof Handle)
+                                .map(arg -> (Handle) arg)
+                                .forEach(handle -> {
+                                    references.merge(handle.getOwner() + "." + handle.getName() + handle.getDesc(), 1, Integer::sum);
+                                    references.merge(handle.getOwner(), 1, Integer::sum);
+                                });
+                    }
+                }
+                methodNode.tryCatchBlocks.stream()
+                        .filter(tcb -> tcb.type != null)
+                        .forEach(tcb -> references.merge(tcb.type, 1, Integer::sum));
+            }
+        }
+        return references;
     }
 
     @SuppressWarnings("unchecked")
@@ -3,8 +3,12 @@ package cn.jeyor1337.bozarxd.obfuscator.transformer.impl;
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.ClassTransformer;
 import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
+import cn.jeyor1337.bozarxd.obfuscator.utils.LocalAllocator;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
@@ -13,8 +17,20 @@ import java.util.stream.IntStream;
 
 public class ConstantTransformer extends ClassTransformer {
 
+    private static final String CONDY_BOOTSTRAP_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;IIJ)Ljava/lang/String;";
+    private static final String RUNTIME_DECRYPT_DESC = "(Ljava/lang/String;IIJ)Ljava/lang/String;";
+    private static final int RUNTIME_TABLE_SIZE = 256 + 256 + 8;
+    private static final int MAX_CONSTANT_BYTES = 65535;
+    private static final int MAX_HOISTED_INIT_BYTES = 8192;
+    private static final int CACHE_LOCK_STRIPES = 16;
+
     private final Map<String, StringEncryptionContext> classContexts = new HashMap<>();
+    private final Map<String, LightStringContext> lightContexts = new HashMap<>();
+    private final Map<String, HoistedNumberContext> numberContexts = new HashMap<>();
     private final Set<String> processedMethods = new HashSet<>();
+    private final Map<String, Boolean> initializedBySuper = new HashMap<>();
+    private SharedStringRuntime sharedRuntime;
+    private MethodMark methodMark;
 
     public ConstantTransformer(Bozar bozar) {
         super(bozar, "Constant obfuscation", BozarCategory.ADVANCED);
@@ -23,7 +39,32 @@ public class ConstantTransformer extends ClassTransformer {
     @Override
     public void pre() {
         classContexts.clear();
+        lightContexts.clear();
+        numberContexts.clear();
         processedMethods.clear();
+        initializedBySuper.clear();
+        this.methodMark = null;
+        this.sharedRuntime = this.getPerformanceOptions().isSharedStringRuntime() ? this.createSharedRuntime() : null;
+    }
+
+    private SharedStringRuntime createSharedRuntime() {
+        final String packageName = ASMUtils.parentName(this.getBozar().getClasses().get(0).name);
+        final Set<String> classNames = new HashSet<>();
+        this.getBozar().getClasses().forEach(classNode -> classNames.add(classNode.name));
+
+        String className;
+        do {
+            className = packageName + randomLetters(6);
+        } while (classNames.contains(className));
+        return new SharedStringRuntime(className, randomLetters(4), randomLetters(4), new StringKeyTables());
+    }
+
+    private static String randomLetters(int length) {
+        final String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            sb.append(chars.charAt(ThreadLocalRandom.current().nextInt(chars.length())));
+        return sb.toString();
     }
 
     private enum NumberObfType {
@@ -34,110 +75,47 @@ public class ConstantTransformer extends ClassTransformer {
         MIXED_OPS
     }
 
-    private void obfuscateNumbers(ClassNode classNode, MethodNode methodNode) {
+    private void obfuscateNumbers(ClassNode classNode, MethodNode methodNode, LocalAllocator locals) {
+        final var loopPolicy = this.getLoopPolicy(this.getPerformanceOptions().getConstantLoopPolicy());
+        final Set<AbstractInsnNode> loopInsns = this.getLoopInstructions(methodNode, loopPolicy);
+        final Set<AbstractInsnNode> lightInsns = new HashSet<>();
+        // Interfaces cannot hold private static fields
+        final boolean hoist = this.getPerformanceOptions().isHoistedNumberConstants() && ASMUtils.isClassEligibleToModify(classNode)
+                && !this.isUsedBySuperInit(classNode);
+
         Arrays.stream(methodNode.instructions.toArray())
                 .filter(insn -> ASMUtils.isPushInt(insn) || ASMUtils.isPushLong(insn)
                         || ASMUtils.isPushFloat(insn) || ASMUtils.isPushDouble(insn))
+                .filter(insn -> loopPolicy != BozarConfig.BozarOptions.PerformanceOptions.LoopPolicy.SKIP || !loopInsns.contains(insn))
                 .forEach(insn -> {
-                    final InsnList insnList = new InsnList();
                     final ValueType valueType = this.getValueType(insn);
-
-                    int type = this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.SUPER
-                            ? 2 : random.nextInt(2);
-
-                    switch (valueType) {
-                        case INTEGER -> {
-                            int value = ASMUtils.getPushedInt(insn);
-
-                            final byte shift = 2;
-                            boolean canShift = this.canShiftLeft(shift, value, Integer.MIN_VALUE);
-                            if (!canShift && type == 1) type--;
-
-                            switch (type) {
-                                case 0 -> {
-                                    int xor1 = random.nextInt(Short.MAX_VALUE);
-                                    int xor2 = value ^ xor1;
-                                    insnList.add(ASMUtils.pushInt(xor1));
-                                    insnList.add(ASMUtils.pushInt(xor2));
-                                    insnList.add(new InsnNode(IXOR));
-                                }
-                                case 1 -> {
-                                    insnList.add(ASMUtils.pushInt(value << shift));
-                                    insnList.add(ASMUtils.pushInt(shift));
-                                    insnList.add(new InsnNode(IUSHR));
-                                }
-                                case 2 -> {
-                                    obfuscateIntSuper(insnList, value);
-                                }
-                            }
-                        }
-                        case LONG -> {
-                            long value = ASMUtils.getPushedLong(insn);
-                            final byte shift = 2;
-                            boolean canShift = this.canShiftLeft(shift, value, Long.MIN_VALUE);
-                            if (!canShift && type == 1) type--;
-
-                            switch (type) {
-                                case 0 -> {
-                                    int xor1 = random.nextInt(Short.MAX_VALUE);
-                                    long xor2 = value ^ xor1;
-                                    insnList.add(ASMUtils.pushLong(xor1));
-                                    insnList.add(ASMUtils.pushLong(xor2));
-                                    insnList.add(new InsnNode(LXOR));
-                                }
-                                case 1 -> {
-                                    insnList.add(ASMUtils.pushLong(value << shift));
-                                    insnList.add(ASMUtils.pushInt(shift));
-                                    insnList.add(new InsnNode(LUSHR));
-                                }
-                                case 2 -> {
-                                    obfuscateLongSuper(insnList, value);
-                                }
-                            }
-                        }
-                        case FLOAT -> {
-                            float value = ASMUtils.getPushedFloat(insn);
-                            int bits = Float.floatToIntBits(value);
-
-                            int k1 = random.nextInt(Short.MAX_VALUE) + 1;
-                            int k2 = random.nextInt(Short.MAX_VALUE) + 1;
-                            int add = random.nextInt(1000) + 1;
-                            int obfuscated = ((bits ^ k1) + add) ^ k2;
-                            insnList.add(ASMUtils.pushInt(obfuscated));
-                            insnList.add(ASMUtils.pushInt(k2));
-                            insnList.add(new InsnNode(IXOR));
-                            insnList.add(ASMUtils.pushInt(add));
-                            insnList.add(new InsnNode(ISUB));
-                            insnList.add(ASMUtils.pushInt(k1));
-                            insnList.add(new InsnNode(IXOR));
-
-                            insnList.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Float", "intBitsToFloat", "(I)F", false));
-                        }
-                        case DOUBLE -> {
-                            double value = ASMUtils.getPushedDouble(insn);
-                            long bits = Double.doubleToLongBits(value);
-
-                            long k1 = random.nextInt(Short.MAX_VALUE) + 1;
-                            long k2 = random.nextInt(Short.MAX_VALUE) + 1;
-                            long add = random.nextInt(1000) + 1;
-                            long obfuscated = ((bits ^ k1) + add) ^ k2;
-                            insnList.add(ASMUtils.pushLong(obfuscated));
-                            insnList.add(ASMUtils.pushLong(k2));
-                            insnList.add(new InsnNode(LXOR));
-                            insnList.add(ASMUtils.pushLong(add));
-                            insnList.add(new InsnNode(LSUB));
-                            insnList.add(ASMUtils.pushLong(k1));
-                            insnList.add(new InsnNode(LXOR));
-
-                            insnList.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Double", "longBitsToDouble", "(J)D", false));
+                    // Loop constants stay cheap wherever they are evaluated on every iteration, also when hoisting falls back to inline code
+                    final boolean light = loopInsns.contains(insn);
+
+                    // Evaluated once in <clinit>, methods only read a static final the JIT folds like a literal
+                    if (hoist) {
+                        final Object value = switch (valueType) {
+                            case INTEGER -> (Object) ASMUtils.getPushedInt(insn);
+                            case LONG -> (Object) ASMUtils.getPushedLong(insn);
+                            case FLOAT -> (Object) ASMUtils.getPushedFloat(insn);
+                            case DOUBLE -> (Object) ASMUtils.getPushedDouble(insn);
+                        };
+                        final FieldNode field = numberContexts.computeIfAbsent(classNode.name, k -> new HoistedNumberContext(classNode))
+                                .getField(value, this.encodeNumber(insn, valueType, false));
+                        if (field != null) {
+                            methodNode.instructions.set(insn, new FieldInsnNode(GETSTATIC, classNode.name, field.name, field.desc));
+                            return;
                         }
                     }
 
-                    if (this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.FLOW
+                    final InsnList insnList = this.encodeNumber(insn, valueType, light);
+                    if (light) insnList.forEach(lightInsns::add);
+
+                    if (!light && this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.FLOW
                             && (valueType == ValueType.INTEGER || valueType == ValueType.LONG)) {
                         final InsnList flow = new InsnList(), afterFlow = new InsnList();
                         final LabelNode label0 = new LabelNode(), label1 = new LabelNode(), label2 = new LabelNode(), label3 = new LabelNode();
-                        int index = methodNode.maxLocals + 2;
+                        int index = locals.scratch(Type.INT_TYPE);
                         long rand0 = random.nextLong(), rand1 = random.nextLong();
                         while (rand0 == rand1)
                             rand1 = random.nextLong();
@@ -184,6 +162,7 @@ public class ConstantTransformer extends ClassTransformer {
 
         Arrays.stream(methodNode.instructions.toArray())
                 .filter(ASMUtils::isPushInt)
+                .filter(insn -> !loopInsns.contains(insn) && !lightInsns.contains(insn))
                 .filter(insn -> {
                     int val = ASMUtils.getPushedInt(insn);
                     return val >= 0 && val <= Byte.MAX_VALUE;
@@ -199,33 +178,117 @@ public class ConstantTransformer extends ClassTransformer {
                 });
     }
 
+    private InsnList encodeNumber(AbstractInsnNode insn, ValueType valueType, boolean light) {
+        final InsnList insnList = new InsnList();
+        int type = light ? 0 : this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.SUPER
+                ? 2 : random.nextInt(2);
+
+        switch (valueType) {
+            case INTEGER -> {
+                int value = ASMUtils.getPushedInt(insn);
+
+                final byte shift = 2;
+                boolean canShift = this.canShiftLeft(shift, value, Integer.MIN_VALUE);
+                if (!canShift && type == 1) type--;
+
+                switch (type) {
+                    case 0 -> {
+                        int xor1 = random.nextInt(Short.MAX_VALUE);
+                        int xor2 = value ^ xor1;
+                        insnList.add(ASMUtils.pushInt(xor1));
+                        insnList.add(ASMUtils.pushInt(xor2));
+                        insnList.add(new InsnNode(IXOR));
+                    }
+                    case 1 -> {
+                        insnList.add(ASMUtils.pushInt(value << shift));
+                        insnList.add(ASMUtils.pushInt(shift));
+                        insnList.add(new InsnNode(IUSHR));
+                    }
+                    case 2 -> {
+                        obfuscateIntSuper(insnList, value);
+                    }
+                }
+            }
+            case LONG -> {
+                long value = ASMUtils.getPushedLong(insn);
+                final byte shift = 2;
+                boolean canShift = this.canShiftLeft(shift, value, Long.MIN_VALUE);
+                if (!canShift && type == 1) type--;
+
+                switch (type) {
+                    case 0 -> {
+                        int xor1 = random.nextInt(Short.MAX_VALUE);
+                        long xor2 = value ^ xor1;
+                        insnList.add(ASMUtils.pushLong(xor1));
+                        insnList.add(ASMUtils.pushLong(xor2));
+                        insnList.add(new InsnNode(LXOR));
+                    }
+                    case 1 -> {
+                        insnList.add(ASMUtils.pushLong(value << shift));
+                        insnList.add(ASMUtils.pushInt(shift));
+                        insnList.add(new InsnNode(LUSHR));
+                    }
+                    case 2 -> {
+                        obfuscateLongSuper(insnList, value);
+                    }
+                }
+            }
+            case FLOAT -> {
+                float value = ASMUtils.getPushedFloat(insn);
+                int bits = Float.floatToIntBits(value);
+
+                int k1 = random.nextInt(Short.MAX_VALUE) + 1;
+                int k2 = random.nextInt(Short.MAX_VALUE) + 1;
+                int add = random.nextInt(1000) + 1;
+                int obfuscated = ((bits ^ k1) + add) ^ k2;
+                insnList.add(ASMUtils.pushInt(obfuscated));
+                insnList.add(ASMUtils.pushInt(k2));
+                insnList.add(new InsnNode(IXOR));
+                insnList.add(ASMUtils.pushInt(add));
+                insnList.add(new InsnNode(ISUB));
+                insnList.add(ASMUtils.pushInt(k1));
+                insnList.add(new InsnNode(IXOR));
+
+                insnList.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Float", "intBitsToFloat", "(I)F", false));
+            }
+            case DOUBLE -> {
+                double value = ASMUtils.getPushedDouble(insn);
+                long bits = Double.doubleToLongBits(value);
+
+                long k1 = random.nextInt(Short.MAX_VALUE) + 1;
+                long k2 = random.nextInt(Short.MAX_VALUE) + 1;
+                long add = random.nextInt(1000) + 1;
+                long obfuscated = ((bits ^ k1) + add) ^ k2;
+                insnList.add(ASMUtils.pushLong(obfuscated));
+                insnList.add(ASMUtils.pushLong(k2));
+                insnList.add(new InsnNode(LXOR));
+                insnList.add(ASMUtils.pushLong(add));
+                insnList.add(new InsnNode(LSUB));
+                insnList.add(ASMUtils.pushLong(k1));
+                insnList.add(new InsnNode(LXOR));
+
+                insnList.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Double", "longBitsToDouble", "(J)D", false));
+            }
+        }
+        return insnList;
+    }
+
     @Override
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {
         processedMethods.add(classNode.name + "." + methodNode.name + methodNode.desc);
+        this.methodMark = new MethodMark(classNode.name, classContexts.get(classNode.name), lightContexts.get(classNode.name), numberContexts.get(classNode.name));
+        final LocalAllocator locals = new LocalAllocator(methodNode);
 
         if (this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.SUPER) {
 
             StringEncryptionContext ctx = classContexts.computeIfAbsent(classNode.name,
-                k -> new StringEncryptionContext(classNode));
+                k -> new StringEncryptionContext(classNode, this.sharedRuntime));
 
             Arrays.stream(methodNode.instructions.toArray())
                     .filter(insn -> insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String)
                     .map(insn -> (LdcInsnNode) insn)
                     .forEach(ldc -> {
-                        String str = (String) ldc.cst;
-                        int index = ctx.addString(str);
-
-                        InsnList insnList = new InsnList();
-
-                        int encrypted = index ^ ctx.keyOfClass;
-                        insnList.add(ASMUtils.pushInt(encrypted >>> 16));
-                        insnList.add(ASMUtils.pushInt(encrypted & 0xFFFF));
-                        insnList.add(ASMUtils.pushLong(ctx.getKeyLong(index)));
-                        insnList.add(new MethodInsnNode(INVOKESTATIC, classNode.name,
-                                ctx.decryptMethodName, "(IIJ)Ljava/lang/String;",
-                                (classNode.access & ACC_INTERFACE) != 0));
-
-                        methodNode.instructions.insertBefore(ldc, insnList);
+                        methodNode.instructions.insertBefore(ldc, this.createSuperString(classNode, ctx, (String) ldc.cst));
                         methodNode.instructions.remove(ldc);
                     });
         } else {
@@ -234,12 +297,40 @@ public class ConstantTransformer extends ClassTransformer {
                     .filter(insn -> insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String)
                     .map(insn -> (LdcInsnNode) insn)
                     .forEach(ldc -> {
-                        methodNode.instructions.insertBefore(ldc, this.convertString(methodNode, (String) ldc.cst));
+                        methodNode.instructions.insertBefore(ldc, this.createLightString(classNode, locals, (String) ldc.cst));
                         methodNode.instructions.remove(ldc);
                     });
         }
 
-        this.obfuscateNumbers(classNode, methodNode);
+        this.obfuscateNumbers(classNode, methodNode, locals);
+    }
+
+    // Superclasses are initialized first, so code they run on this class would read the hoisted fields before <clinit> assigns them
+    private boolean isUsedBySuperInit(ClassNode classNode) {
+        return initializedBySuper.computeIfAbsent(classNode.name, name -> this.getSuperHierarchy(this.getSuper(classNode)).stream()
+                .map(superNode -> ASMUtils.findMethod(superNode, "<clinit>", "()V"))
+                .filter(Objects::nonNull)
+                .anyMatch(clinit -> Arrays.stream(clinit.instructions.toArray()).anyMatch(insn -> switch (insn) {
+                    case TypeInsnNode typeInsn -> typeInsn.desc.equals(name);
+                    case MethodInsnNode methodInsn -> methodInsn.owner.equals(name);
+                    case FieldInsnNode fieldInsn -> fieldInsn.owner.equals(name);
+                    case LdcInsnNode ldc -> ldc.cst instanceof Type type && type.getSort() == Type.OBJECT && type.getInternalName().equals(name);
+                    default -> false;
+                })));
+    }
+
+    // Strings and hoisted numbers are appended per method, so those of a rolled back method are the last ones
+    @Override
+    public void rollbackMethod(ClassNode classNode, MethodNode methodNode) {
+        final MethodMark mark = this.methodMark;
+        if (mark == null || !mark.className().equals(classNode.name)) return;
+
+        final StringEncryptionContext ctx = classContexts.get(classNode.name);
+        if (ctx != null) ctx.truncate(mark.strings(), mark.usesConstantDynamic());
+        final LightStringContext lightCtx = lightContexts.get(classNode.name);
+        if (lightCtx != null) lightCtx.truncate(mark.lightStrings());
+        final HoistedNumberContext numberCtx = numberContexts.get(classNode.name);
+        if (numberCtx != null) numberCtx.truncate(mark.hoistedFields(), mark.hoistedInitBytes());
     }
 
     @Override
@@ -273,57 +364,213 @@ public class ConstantTransformer extends ClassTransformer {
 
                 ClassNode classNode = ctx.classNode;
 
-                classNode.fields.add(ctx.encryptedField);
                 classNode.fields.add(ctx.decryptedField);
-                classNode.fields.add(ctx.shuffleField);
-                classNode.fields.add(ctx.positionKeysField);
+                classNode.fields.add(ctx.lockField);
+                if (ctx.runtime == null) {
+                    classNode.fields.add(ctx.shuffleField);
+                    classNode.fields.add(ctx.positionKeysField);
+                }
 
                 classNode.methods.add(createDecryptMethod(ctx));
+                if (ctx.usesConstantDynamic) classNode.methods.add(createBootstrapMethod(ctx));
 
                 MethodNode clinit = ASMUtils.findOrCreateClinit(classNode);
                 clinit.instructions.insert(createInitInstructions(ctx));
             }
+
+            if (this.sharedRuntime != null && classContexts.values().stream().anyMatch(ctx -> !ctx.strings.isEmpty())) {
+                final boolean hasStackWalker = classContexts.values().stream()
+                        .filter(ctx -> !ctx.strings.isEmpty())
+                        .allMatch(ctx -> (ctx.classNode.version & 0xFFFF) >= V9);
+                this.getBozar().getClasses().add(createRuntimeClass(this.sharedRuntime, hasStackWalker));
+                this.getBozar().log("Created shared string runtime class: %s", this.sharedRuntime.className());
+            }
+        }
+
+        for (LightStringContext ctx : lightContexts.values()) {
+            if (ctx.stringIndex.isEmpty()) continue;
+            ctx.classNode.fields.add(ctx.cacheField);
+            ctx.classNode.methods.add(createLightDecodeMethod(ctx));
+
+            final InsnList insns = new InsnList();
+            insns.add(ASMUtils.pushInt(ctx.stringIndex.size()));
+            insns.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
+            insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, ctx.cacheField.name, ctx.cacheField.desc));
+            ASMUtils.findOrCreateClinit(ctx.classNode).instructions.insert(insns);
+        }
+
+        for (HoistedNumberContext ctx : numberContexts.values()) {
+            if (ctx.initializers.isEmpty()) continue;
+
+            final InsnList insns = new InsnList();
+            ctx.initializers.forEach((field, init) -> {
+                ctx.classNode.fields.add(field);
+                insns.add(init);
+                insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, field.name, field.desc));
+            });
+            ASMUtils.findOrCreateClinit(ctx.classNode).instructions.insert(insns);
         }
         classContexts.clear();
+        lightContexts.clear();
+        numberContexts.clear();
         processedMethods.clear();
     }
 
+    // One encoded constant per string, decoded by a per-class routine on first use and cached from then on
+    private InsnList createLightString(ClassNode classNode, LocalAllocator locals, String str) {
+        // Interfaces cannot hold the private cache field, they keep the inline char array
+        if (!ASMUtils.isClassEligibleToModify(classNode)) return this.convertString(locals, str);
+
+        final LightStringContext ctx = lightContexts.computeIfAbsent(classNode.name, k -> new LightStringContext(classNode));
+        final int index = ctx.addString(str);
+        final String encoded = ctx.encode(str, index);
+        final InsnList insnList = new InsnList();
+
+        // Encoded chars mostly take 3 bytes in modified UTF-8, so long literals are split over several constants
+        int start = 0, bytes = 0;
+        for (int i = 0; i < encoded.length(); i++) {
+            final int size = utf8Length(encoded.charAt(i));
+            if (bytes + size > MAX_CONSTANT_BYTES) {
+                insnList.add(new LdcInsnNode(encoded.substring(start, i)));
+                if (start > 0) insnList.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;", false));
+                start = i;
+                bytes = 0;
+            }
+            bytes += size;
+        }
+        insnList.add(new LdcInsnNode(encoded.substring(start)));
+        if (start > 0) insnList.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;", false));
+        insnList.add(ASMUtils.pushInt(index));
+        insnList.add(new MethodInsnNode(INVOKESTATIC, classNode.name, ctx.decodeMethodName, "(Ljava/lang/String;I)Ljava/lang/String;", false));
+        return insnList;
+    }
+
+    private static MethodNode createLightDecodeMethod(LightStringContext ctx) {
+        final MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC, ctx.decodeMethodName, "(Ljava/lang/String;I)Ljava/lang/String;", null, null);
+        final int varEncoded = 0, varIndex = 1, varDecoded = 2, varChars = 3, varI = 4, varKey = 5;
+        final LabelNode missLabel = new LabelNode(), loopLabel = new LabelNode(), loopEndLabel = new LabelNode();
+        final InsnList insns = method.instructions;
+
+        // Strings are immutable, so a racing thread at worst decodes the same string twice
+        insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.cacheField.name, ctx.cacheField.desc));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new InsnNode(AALOAD));
+        insns.add(new InsnNode(DUP));
+        insns.add(new JumpInsnNode(IFNULL, missLabel));
+        insns.add(new InsnNode(ARETURN));
+
+        insns.add(missLabel);
+        insns.add(new InsnNode(POP));
+        insns.add(new VarInsnNode(ALOAD, varEncoded));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "toCharArray", "()[C", false));
+        insns.add(new VarInsnNode(ASTORE, varChars));
+        insns.add(ASMUtils.pushInt(ctx.key));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(ASMUtils.pushInt(LightStringContext.INDEX_MULTIPLIER));
+        insns.add(new InsnNode(IMUL));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new VarInsnNode(ISTORE, varKey));
+        insns.add(ASMUtils.pushInt(0));
+        insns.add(new VarInsnNode(ISTORE, varI));
+
+        insns.add(loopLabel);
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new VarInsnNode(ALOAD, varChars));
+        insns.add(new InsnNode(ARRAYLENGTH));
+        insns.add(new JumpInsnNode(IF_ICMPGE, loopEndLabel));
+        insns.add(new VarInsnNode(ALOAD, varChars));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new VarInsnNode(ALOAD, varChars));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new InsnNode(CALOAD));
+        insns.add(new VarInsnNode(ILOAD, varKey));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new InsnNode(IADD));
+        insns.add(ASMUtils.pushInt(LightStringContext.CHAR_MULTIPLIER));
+        insns.add(new InsnNode(IMUL));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new InsnNode(I2C));
+        insns.add(new InsnNode(CASTORE));
+        insns.add(new IincInsnNode(varI, 1));
+        insns.add(new JumpInsnNode(GOTO, loopLabel));
+
+        insns.add(loopEndLabel);
+        insns.add(new TypeInsnNode(NEW, "java/lang/String"));
+        insns.add(new InsnNode(DUP));
+        insns.add(new VarInsnNode(ALOAD, varChars));
+        insns.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false));
+        insns.add(new VarInsnNode(ASTORE, varDecoded));
+        insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.cacheField.name, ctx.cacheField.desc));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new VarInsnNode(ALOAD, varDecoded));
+        insns.add(new InsnNode(AASTORE));
+        insns.add(new VarInsnNode(ALOAD, varDecoded));
+        insns.add(new InsnNode(ARETURN));
+        method.maxStack = 6;
+        method.maxLocals = 6;
+        return method;
+    }
+
     private void processNewMethodStrings(ClassNode classNode, MethodNode methodNode) {
         if (this.getBozar().getConfig().getOptions().getConstantObfuscation() == BozarConfig.BozarOptions.ConstantObfuscationOption.SUPER) {
             StringEncryptionContext ctx = classContexts.computeIfAbsent(classNode.name,
-                k -> new StringEncryptionContext(classNode));
+                k -> new StringEncryptionContext(classNode, this.sharedRuntime));
 
             Arrays.stream(methodNode.instructions.toArray())
                     .filter(insn -> insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String)
                     .map(insn -> (LdcInsnNode) insn)
                     .forEach(ldc -> {
-                        String str = (String) ldc.cst;
-                        int index = ctx.addString(str);
-
-                        InsnList insnList = new InsnList();
-
-                        int encrypted = index ^ ctx.keyOfClass;
-                        insnList.add(ASMUtils.pushInt(encrypted >>> 16));
-                        insnList.add(ASMUtils.pushInt(encrypted & 0xFFFF));
-                        insnList.add(ASMUtils.pushLong(ctx.getKeyLong(index)));
-                        insnList.add(new MethodInsnNode(INVOKESTATIC, classNode.name,
-                                ctx.decryptMethodName, "(IIJ)Ljava/lang/String;",
-                                (classNode.access & ACC_INTERFACE) != 0));
-
-                        methodNode.instructions.insertBefore(ldc, insnList);
+                        methodNode.instructions.insertBefore(ldc, this.createSuperString(classNode, ctx, (String) ldc.cst));
                         methodNode.instructions.remove(ldc);
                     });
         } else {
+            final LocalAllocator locals = new LocalAllocator(methodNode);
             Arrays.stream(methodNode.instructions.toArray())
                     .filter(insn -> insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String)
                     .map(insn -> (LdcInsnNode) insn)
                     .forEach(ldc -> {
-                        methodNode.instructions.insertBefore(ldc, this.convertString(methodNode, (String) ldc.cst));
+                        methodNode.instructions.insertBefore(ldc, this.createLightString(classNode, locals, (String) ldc.cst));
                         methodNode.instructions.remove(ldc);
                     });
         }
     }
 
+    private InsnList createSuperString(ClassNode classNode, StringEncryptionContext ctx, String str) {
+        final InsnList insnList = new InsnList();
+        final int index = ctx.addString(str);
+        final int encrypted = index ^ ctx.keyOfClass;
+        final boolean isInterface = (classNode.access & ACC_INTERFACE) != 0;
+
+        // Dynamic constants are resolved once per call site and then cached by the JVM like a plain LDC
+        if (this.getPerformanceOptions().isConstantDynamicStrings() && (classNode.version & 0xFFFF) >= V11) {
+            ctx.usesConstantDynamic = true;
+            insnList.add(new LdcInsnNode(new ConstantDynamic(ctx.decryptMethodName, "Ljava/lang/String;",
+                    new Handle(H_INVOKESTATIC, classNode.name, ctx.bootstrapMethodName, CONDY_BOOTSTRAP_DESC, isInterface),
+                    encrypted >>> 16, encrypted & 0xFFFF, ctx.getKeyLong(index))));
+            return insnList;
+        }
+
+        insnList.add(ASMUtils.pushInt(encrypted >>> 16));
+        insnList.add(ASMUtils.pushInt(encrypted & 0xFFFF));
+        insnList.add(ASMUtils.pushLong(ctx.getKeyLong(index)));
+        insnList.add(new MethodInsnNode(INVOKESTATIC, classNode.name, ctx.decryptMethodName, "(IIJ)Ljava/lang/String;", isInterface));
+        return insnList;
+    }
+
+    private MethodNode createBootstrapMethod(StringEncryptionContext ctx) {
+        MethodNode method = new MethodNode(ACC_PRIVATE | ACC_STATIC, ctx.bootstrapMethodName, CONDY_BOOTSTRAP_DESC, null, null);
+        method.instructions.add(new VarInsnNode(ILOAD, 3));
+        method.instructions.add(new VarInsnNode(ILOAD, 4));
+        method.instructions.add(new VarInsnNode(LLOAD, 5));
+        method.instructions.add(new MethodInsnNode(INVOKESTATIC, ctx.classNode.name, ctx.decryptMethodName, "(IIJ)Ljava/lang/String;",
+                (ctx.classNode.access & ACC_INTERFACE) != 0));
+        method.instructions.add(new InsnNode(ARETURN));
+        method.maxStack = 4;
+        method.maxLocals = 7;
+        return method;
+    }
+
     private MethodNode createDecryptMethod(StringEncryptionContext ctx) {
         MethodNode method = new MethodNode(
                 ACC_PRIVATE | ACC_STATIC,
@@ -336,8 +583,8 @@ public class ConstantTransformer extends ClassTransformer {
         int varIndex = 4, varDecrypted = 5, varKeyBytes = 6, varKeyBytesI = 7;
         int varEncrypted = 8, varBuffer = 9, varI = 10, varJ = 11, varXorKey = 12;
         int varDynamicKey = 13, varCharVal = 14, varLowByte = 15;
-        int varCallerHash = 16;
-        int varPositionXor = 18;
+        int varCallerHash = 16, varTempHash = 17;
+        int varPositionXor = 18, varChunk = 19, varChunkIndex = 20, varLock = 21;
 
         LabelNode startLabel = new LabelNode();
         LabelNode convertLoopLabel = new LabelNode();
@@ -346,6 +593,8 @@ public class ConstantTransformer extends ClassTransformer {
         LabelNode charLoopEndLabel = new LabelNode();
         LabelNode resetJLabel = new LabelNode();
         LabelNode returnLabel = new LabelNode();
+        LabelNode lockStartLabel = new LabelNode();
+        LabelNode unlockLabel = new LabelNode();
         LabelNode[] switchLabels = new LabelNode[256];
         for (int i = 0; i < 256; i++) switchLabels[i] = new LabelNode();
         LabelNode switchDefaultLabel = switchLabels[255];
@@ -359,59 +608,7 @@ public class ConstantTransformer extends ClassTransformer {
 
         insns.add(startLabel);
 
-        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Thread", "currentThread", "()Ljava/lang/Thread;", false));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Thread", "getStackTrace", "()[Ljava/lang/StackTraceElement;", false));
-        insns.add(ASMUtils.pushInt(2));
-        insns.add(new InsnNode(AALOAD));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/StackTraceElement", "getClassName", "()Ljava/lang/String;", false));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "hashCode", "()I", false));
-
-        int expectedClassNameHash = ctx.classNode.name.replace('/', '.').hashCode();
-        insns.add(ASMUtils.pushInt(expectedClassNameHash));
-        insns.add(new InsnNode(IXOR));
-
-        int varTempHash = 17;
-        insns.add(new VarInsnNode(ISTORE, varTempHash));
-
-        LabelNode tryStart = new LabelNode();
-        LabelNode tryEnd = new LabelNode();
-        LabelNode catchHandler = new LabelNode();
-        LabelNode afterClassLoaderCheck = new LabelNode();
-
-        insns.add(tryStart);
-
-        insns.add(new LdcInsnNode(org.objectweb.asm.Type.getObjectType(ctx.classNode.name)));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false));
-        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/System", "identityHashCode", "(Ljava/lang/Object;)I", false));
-
-        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Thread", "currentThread", "()Ljava/lang/Thread;", false));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Thread", "getStackTrace", "()[Ljava/lang/StackTraceElement;", false));
-        insns.add(ASMUtils.pushInt(2));
-        insns.add(new InsnNode(AALOAD));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/StackTraceElement", "getClassName", "()Ljava/lang/String;", false));
-        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false));
-        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false));
-        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/System", "identityHashCode", "(Ljava/lang/Object;)I", false));
-
-        insns.add(new InsnNode(IXOR));
-        insns.add(tryEnd);
-        insns.add(new JumpInsnNode(GOTO, afterClassLoaderCheck));
-
-        insns.add(catchHandler);
-        insns.add(new InsnNode(POP));
-        insns.add(ASMUtils.pushInt(0x12345678));
-
-        insns.add(afterClassLoaderCheck);
-
-        insns.add(new VarInsnNode(ILOAD, varTempHash));
-
-        insns.add(new InsnNode(IXOR));
-
-        method.tryCatchBlocks.add(new TryCatchBlockNode(tryStart, tryEnd, catchHandler, "java/lang/Throwable"));
-
-        insns.add(new VarInsnNode(ISTORE, varCallerHash));
-
-        insns.add(antiCopyCheckLabel);
+        // Cache hits return before any caller check, only the first decryption of an index pays for it
         insns.add(new VarInsnNode(ILOAD, varHigh));
         insns.add(ASMUtils.pushInt(16));
         insns.add(new InsnNode(ISHL));
@@ -422,16 +619,45 @@ public class ConstantTransformer extends ClassTransformer {
         insns.add(new InsnNode(DUP));
         insns.add(new VarInsnNode(ISTORE, varIndex));
 
+        // Strings are immutable, so hits can read the cache without any ordering
         insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.decryptedField.name, ctx.decryptedField.desc));
         insns.add(new InsnNode(SWAP));
         insns.add(new InsnNode(AALOAD));
         insns.add(new InsnNode(DUP));
         insns.add(new VarInsnNode(ASTORE, varDecrypted));
         insns.add(new JumpInsnNode(IFNONNULL, returnLabel));
+        insns.add(createCacheLock(ctx, varIndex, varDecrypted, varLock, lockStartLabel, unlockLabel));
+
+        // The cipher itself lives in the shared runtime class, this class only keeps its blobs and cache.
+        // The runtime checks its caller itself, so the caller hash is never an argument anyone could pick
+        if (ctx.runtime != null) {
+            insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.decryptedField.name, ctx.decryptedField.desc));
+            insns.add(new VarInsnNode(ILOAD, varIndex));
+            insns.add(createEncryptedLookup(ctx, varIndex, varChunk, varChunkIndex));
+            insns.add(new VarInsnNode(ILOAD, varIndex));
+            insns.add(ASMUtils.pushInt(ctx.keyOfClass));
+            insns.add(new VarInsnNode(LLOAD, varKeyLong));
+            insns.add(new MethodInsnNode(INVOKESTATIC, ctx.runtime.className(), ctx.runtime.decryptMethodName(), RUNTIME_DECRYPT_DESC, false));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false));
+            insns.add(createCacheUnlock(method, varDecrypted, varLock, lockStartLabel, unlockLabel, returnLabel));
+
+            insns.add(returnLabel);
+            insns.add(new VarInsnNode(ALOAD, varDecrypted));
+            insns.add(new InsnNode(ARETURN));
+
+            method.instructions = insns;
+            method.maxStack = 12;
+            method.maxLocals = 22;
+            return method;
+        }
+
+        insns.add(antiCopyCheckLabel);
+        insns.add(createCallerHashInstructions(ctx.classNode.name, (ctx.classNode.version & 0xFFFF) >= V9, method, varTempHash));
+        insns.add(new VarInsnNode(ISTORE, varCallerHash));
 
         insns.add(new TypeInsnNode(NEW, "java/util/Random"));
         insns.add(new InsnNode(DUP));
-        insns.add(ASMUtils.pushLong(ctx.magicSeed));
+        insns.add(ASMUtils.pushLong(ctx.tables.magicSeed));
         insns.add(new VarInsnNode(ILOAD, varIndex));
         insns.add(new InsnNode(I2L));
         insns.add(new InsnNode(LXOR));
@@ -465,9 +691,7 @@ public class ConstantTransformer extends ClassTransformer {
         insns.add(new JumpInsnNode(GOTO, convertLoopLabel));
         insns.add(convertLoopEndLabel);
 
-        insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.encryptedField.name, ctx.encryptedField.desc));
-        insns.add(new VarInsnNode(ILOAD, varIndex));
-        insns.add(new InsnNode(AALOAD));
+        insns.add(createEncryptedLookup(ctx, varIndex, varChunk, varChunkIndex));
         insns.add(new VarInsnNode(ASTORE, varEncrypted));
 
         insns.add(new VarInsnNode(ALOAD, varEncrypted));
@@ -508,7 +732,7 @@ public class ConstantTransformer extends ClassTransformer {
 
         for (int i = 0; i < 256; i++) {
             insns.add(switchLabels[i]);
-            insns.add(ASMUtils.pushInt(ctx.keyMap[i]));
+            insns.add(ASMUtils.pushInt(ctx.tables.keyMap[i]));
             insns.add(new VarInsnNode(ISTORE, varXorKey));
             if (i != 255) {
                 insns.add(new JumpInsnNode(GOTO, afterSwitchLabel));
@@ -571,29 +795,29 @@ public class ConstantTransformer extends ClassTransformer {
         insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
 
         insns.add(positionSwitchLabels[1]);
-        insns.add(ASMUtils.pushInt(ctx.positionKey1 ^ ctx.positionKey2));
+        insns.add(ASMUtils.pushInt(ctx.tables.positionKey1 ^ ctx.tables.positionKey2));
         insns.add(new VarInsnNode(ISTORE, varPositionXor));
         insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
 
         insns.add(positionSwitchLabels[2]);
         insns.add(new VarInsnNode(ILOAD, varI));
-        insns.add(ASMUtils.pushInt(ctx.positionKey2));
+        insns.add(ASMUtils.pushInt(ctx.tables.positionKey2));
         insns.add(new InsnNode(IXOR));
         insns.add(new VarInsnNode(ISTORE, varPositionXor));
         insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
 
         insns.add(positionSwitchLabels[3]);
-        insns.add(ASMUtils.pushInt(ctx.positionKey2));
+        insns.add(ASMUtils.pushInt(ctx.tables.positionKey2));
         insns.add(new VarInsnNode(ISTORE, varPositionXor));
         insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
 
         insns.add(positionSwitchLabels[4]);
-        insns.add(ASMUtils.pushInt(ctx.positionKey1));
+        insns.add(ASMUtils.pushInt(ctx.tables.positionKey1));
         insns.add(new VarInsnNode(ISTORE, varPositionXor));
         insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
 
         insns.add(positionSwitchLabels[5]);
-        insns.add(ASMUtils.pushInt(ctx.positionKey1));
+        insns.add(ASMUtils.pushInt(ctx.tables.positionKey1));
         insns.add(new VarInsnNode(ILOAD, varI));
         insns.add(new InsnNode(IXOR));
         insns.add(new VarInsnNode(ISTORE, varPositionXor));
@@ -633,9 +857,7 @@ public class ConstantTransformer extends ClassTransformer {
         insns.add(new VarInsnNode(ALOAD, varBuffer));
         insns.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false));
         insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "intern", "()Ljava/lang/String;", false));
-        insns.add(new InsnNode(DUP));
-        insns.add(new VarInsnNode(ASTORE, varDecrypted));
-        insns.add(new InsnNode(AASTORE));
+        insns.add(createCacheUnlock(method, varDecrypted, varLock, lockStartLabel, unlockLabel, returnLabel));
 
         insns.add(returnLabel);
         insns.add(new VarInsnNode(ALOAD, varDecrypted));
@@ -643,39 +865,393 @@ public class ConstantTransformer extends ClassTransformer {
 
         method.instructions = insns;
         method.maxStack = 12;
-        method.maxLocals = 19;
+        method.maxLocals = 22;
 
         return method;
     }
 
+    // Zero for callers from the owner class and its class loader; StackWalker hands out the caller class without building a stack trace
+    private static InsnList createCallerHashInstructions(String owner, boolean hasStackWalker, MethodNode method, int varTempHash) {
+        final InsnList insns = new InsnList();
+
+        LabelNode tryStart = new LabelNode();
+        LabelNode tryEnd = new LabelNode();
+        LabelNode catchHandler = new LabelNode();
+        LabelNode afterClassLoaderCheck = new LabelNode();
+
+        if (hasStackWalker) {
+            insns.add(new FieldInsnNode(GETSTATIC, "java/lang/StackWalker$Option", "RETAIN_CLASS_REFERENCE", "Ljava/lang/StackWalker$Option;"));
+            insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/StackWalker", "getInstance", "(Ljava/lang/StackWalker$Option;)Ljava/lang/StackWalker;", false));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/StackWalker", "getCallerClass", "()Ljava/lang/Class;", false));
+            insns.add(new InsnNode(DUP));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Class", "getName", "()Ljava/lang/String;", false));
+        } else {
+            insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Thread", "currentThread", "()Ljava/lang/Thread;", false));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Thread", "getStackTrace", "()[Ljava/lang/StackTraceElement;", false));
+            insns.add(ASMUtils.pushInt(2));
+            insns.add(new InsnNode(AALOAD));
+            insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/StackTraceElement", "getClassName", "()Ljava/lang/String;", false));
+            insns.add(new InsnNode(DUP));
+        }
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "hashCode", "()I", false));
+        insns.add(ASMUtils.pushInt(owner.replace('/', '.').hashCode()));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new VarInsnNode(ISTORE, varTempHash));
+
+        // Caller class (or its name) is left on the stack for the class loader check
+        insns.add(tryStart);
+        if (!hasStackWalker)
+            insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false));
+        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/System", "identityHashCode", "(Ljava/lang/Object;)I", false));
+        insns.add(new LdcInsnNode(org.objectweb.asm.Type.getObjectType(owner)));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/Class", "getClassLoader", "()Ljava/lang/ClassLoader;", false));
+        insns.add(new MethodInsnNode(INVOKESTATIC, "java/lang/System", "identityHashCode", "(Ljava/lang/Object;)I", false));
+        insns.add(new InsnNode(IXOR));
+        insns.add(tryEnd);
+        insns.add(new JumpInsnNode(GOTO, afterClassLoaderCheck));
+
+        insns.add(catchHandler);
+        insns.add(new InsnNode(POP));
+        insns.add(ASMUtils.pushInt(0x12345678));
+
+        insns.add(afterClassLoaderCheck);
+        insns.add(new VarInsnNode(ILOAD, varTempHash));
+        insns.add(new InsnNode(IXOR));
+
+        method.tryCatchBlocks.add(new TryCatchBlockNode(tryStart, tryEnd, catchHandler, "java/lang/Throwable"));
+        return insns;
+    }
+
+    private static ClassNode createRuntimeClass(SharedStringRuntime runtime, boolean hasStackWalker) {
+        final StringKeyTables tables = runtime.tables();
+        final ClassNode classNode = new ClassNode();
+        classNode.visit(hasStackWalker ? V9 : V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, runtime.className(), null, "java/lang/Object", null);
+        classNode.fields.add(new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, runtime.tableFieldName(), "[I", null, null));
+
+        // Key map, reverse shuffle map and position keys, two chars per int in a single constant
+        final StringBuilder encoded = new StringBuilder(RUNTIME_TABLE_SIZE * 2);
+        IntStream.concat(IntStream.concat(Arrays.stream(tables.keyMap), Arrays.stream(tables.reverseShuffleMap)), Arrays.stream(tables.positionKeys))
+                .forEach(value -> encoded.append((char) (value >>> 16)).append((char) value));
+
+        final MethodNode clinit = new MethodNode(ACC_STATIC, "<clinit>", "()V", null, null);
+        final LabelNode loopLabel = new LabelNode(), endLabel = new LabelNode();
+        InsnList insns = clinit.instructions;
+        insns.add(new LdcInsnNode(encoded.toString()));
+        insns.add(new VarInsnNode(ASTORE, 0));
+        insns.add(ASMUtils.pushInt(RUNTIME_TABLE_SIZE));
+        insns.add(new IntInsnNode(NEWARRAY, T_INT));
+        insns.add(new VarInsnNode(ASTORE, 1));
+        insns.add(ASMUtils.pushInt(0));
+        insns.add(new VarInsnNode(ISTORE, 2));
+        insns.add(loopLabel);
+        insns.add(new VarInsnNode(ILOAD, 2));
+        insns.add(ASMUtils.pushInt(RUNTIME_TABLE_SIZE));
+        insns.add(new JumpInsnNode(IF_ICMPGE, endLabel));
+        insns.add(new VarInsnNode(ALOAD, 1));
+        insns.add(new VarInsnNode(ILOAD, 2));
+        insns.add(new VarInsnNode(ALOAD, 0));
+        insns.add(new VarInsnNode(ILOAD, 2));
+        insns.add(ASMUtils.pushInt(1));
+        insns.add(new InsnNode(ISHL));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false));
+        insns.add(ASMUtils.pushInt(16));
+        insns.add(new InsnNode(ISHL));
+        insns.add(new VarInsnNode(ALOAD, 0));
+        insns.add(new VarInsnNode(ILOAD, 2));
+        insns.add(ASMUtils.pushInt(1));
+        insns.add(new InsnNode(ISHL));
+        insns.add(ASMUtils.pushInt(1));
+        insns.add(new InsnNode(IADD));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false));
+        insns.add(new InsnNode(IOR));
+        insns.add(new InsnNode(IASTORE));
+        insns.add(new IincInsnNode(2, 1));
+        insns.add(new JumpInsnNode(GOTO, loopLabel));
+        insns.add(endLabel);
+        insns.add(new VarInsnNode(ALOAD, 1));
+        insns.add(new FieldInsnNode(PUTSTATIC, runtime.className(), runtime.tableFieldName(), "[I"));
+        insns.add(new InsnNode(RETURN));
+        clinit.maxStack = 6;
+        clinit.maxLocals = 3;
+        classNode.methods.add(clinit);
+
+        // Same cipher as the per-class decrypt routine, with the class and string keys passed in.
+        // The caller hash is taken from the calling class, whose strings are encrypted against it
+        final MethodNode decrypt = new MethodNode(ACC_PUBLIC | ACC_STATIC, runtime.decryptMethodName(), RUNTIME_DECRYPT_DESC, null, null);
+        final int varEncrypted = 0, varIndex = 1, varKeyOfClass = 2, varKeyLong = 3, varCallerHash = 5;
+        final int varBuffer = 6, varI = 7, varDynamicKey = 8, varCharVal = 9, varValue = 10, varTempHash = 11;
+        final LabelNode charLoopLabel = new LabelNode(), charLoopEndLabel = new LabelNode(), afterPositionSwitchLabel = new LabelNode();
+        final LabelNode[] positionSwitchLabels = new LabelNode[8];
+        for (int i = 0; i < 8; i++) positionSwitchLabels[i] = new LabelNode();
+        final String tableOwner = runtime.className(), tableName = runtime.tableFieldName();
+
+        insns = decrypt.instructions;
+        insns.add(createCallerHashInstructions(runtime.className(), hasStackWalker, decrypt, varTempHash));
+        insns.add(new VarInsnNode(ISTORE, varCallerHash));
+        insns.add(new VarInsnNode(ALOAD, varEncrypted));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "length", "()I", false));
+        insns.add(new IntInsnNode(NEWARRAY, T_CHAR));
+        insns.add(new VarInsnNode(ASTORE, varBuffer));
+
+        insns.add(new TypeInsnNode(NEW, "java/util/Random"));
+        insns.add(new InsnNode(DUP));
+        insns.add(ASMUtils.pushLong(tables.magicSeed));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new InsnNode(I2L));
+        insns.add(new InsnNode(LXOR));
+        insns.add(new MethodInsnNode(INVOKESPECIAL, "java/util/Random", "<init>", "(J)V", false));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/util/Random", "nextInt", "()I", false));
+        insns.add(new VarInsnNode(ISTORE, varDynamicKey));
+
+        insns.add(ASMUtils.pushInt(0));
+        insns.add(new VarInsnNode(ISTORE, varI));
+        insns.add(charLoopLabel);
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new VarInsnNode(ALOAD, varBuffer));
+        insns.add(new InsnNode(ARRAYLENGTH));
+        insns.add(new JumpInsnNode(IF_ICMPGE, charLoopEndLabel));
+
+        insns.add(new VarInsnNode(ALOAD, varEncrypted));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false));
+        insns.add(new VarInsnNode(ISTORE, varCharVal));
+
+        insns.add(new VarInsnNode(ILOAD, varCharVal));
+        insns.add(ASMUtils.pushInt(0xFF00));
+        insns.add(new InsnNode(IAND));
+        insns.add(new FieldInsnNode(GETSTATIC, tableOwner, tableName, "[I"));
+        insns.add(new VarInsnNode(ILOAD, varCharVal));
+        insns.add(ASMUtils.pushInt(0xFF));
+        insns.add(new InsnNode(IAND));
+        insns.add(ASMUtils.pushInt(256));
+        insns.add(new InsnNode(IADD));
+        insns.add(new InsnNode(IALOAD));
+        insns.add(new InsnNode(IOR));
+
+        insns.add(new VarInsnNode(ILOAD, varDynamicKey));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new InsnNode(IUSHR));
+        insns.add(ASMUtils.pushInt(0xFF));
+        insns.add(new InsnNode(IAND));
+        insns.add(new InsnNode(IXOR));
+
+        insns.add(new VarInsnNode(ILOAD, varKeyOfClass));
+        insns.add(new InsnNode(IXOR));
+
+        insns.add(new FieldInsnNode(GETSTATIC, tableOwner, tableName, "[I"));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new VarInsnNode(ILOAD, varKeyOfClass));
+        insns.add(new InsnNode(IXOR));
+        insns.add(ASMUtils.pushInt(0xFF));
+        insns.add(new InsnNode(IAND));
+        insns.add(new InsnNode(IALOAD));
+        insns.add(new InsnNode(IXOR));
+
+        // Byte i % 8 of the string key, most significant first
+        insns.add(new VarInsnNode(LLOAD, varKeyLong));
+        insns.add(ASMUtils.pushInt(56));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(ASMUtils.pushInt(7));
+        insns.add(new InsnNode(IAND));
+        insns.add(ASMUtils.pushInt(3));
+        insns.add(new InsnNode(ISHL));
+        insns.add(new InsnNode(ISUB));
+        insns.add(new InsnNode(LUSHR));
+        insns.add(new InsnNode(L2I));
+        insns.add(new InsnNode(I2B));
+        insns.add(new InsnNode(IXOR));
+
+        insns.add(new VarInsnNode(ILOAD, varCallerHash));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new VarInsnNode(ISTORE, varValue));
+
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(ASMUtils.pushInt(7));
+        insns.add(new InsnNode(IAND));
+        insns.add(new TableSwitchInsnNode(0, 7, positionSwitchLabels[7], positionSwitchLabels));
+
+        insns.add(positionSwitchLabels[0]);
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[1]);
+        insns.add(ASMUtils.pushInt(tables.positionKey1 ^ tables.positionKey2));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[2]);
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(ASMUtils.pushInt(tables.positionKey2));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[3]);
+        insns.add(ASMUtils.pushInt(tables.positionKey2));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[4]);
+        insns.add(ASMUtils.pushInt(tables.positionKey1));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[5]);
+        insns.add(ASMUtils.pushInt(tables.positionKey1));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[6]);
+        insns.add(new FieldInsnNode(GETSTATIC, tableOwner, tableName, "[I"));
+        insns.add(ASMUtils.pushInt(512 + 6));
+        insns.add(new InsnNode(IALOAD));
+        insns.add(new JumpInsnNode(GOTO, afterPositionSwitchLabel));
+
+        insns.add(positionSwitchLabels[7]);
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new FieldInsnNode(GETSTATIC, tableOwner, tableName, "[I"));
+        insns.add(ASMUtils.pushInt(512 + 7));
+        insns.add(new InsnNode(IALOAD));
+        insns.add(new InsnNode(IXOR));
+
+        insns.add(afterPositionSwitchLabel);
+        insns.add(new VarInsnNode(ILOAD, varValue));
+        insns.add(new InsnNode(IXOR));
+        insns.add(new VarInsnNode(ISTORE, varValue));
+        insns.add(new VarInsnNode(ALOAD, varBuffer));
+        insns.add(new VarInsnNode(ILOAD, varI));
+        insns.add(new VarInsnNode(ILOAD, varValue));
+        insns.add(new InsnNode(I2C));
+        insns.add(new InsnNode(CASTORE));
+
+        insns.add(new IincInsnNode(varI, 1));
+        insns.add(new JumpInsnNode(GOTO, charLoopLabel));
+
+        insns.add(charLoopEndLabel);
+        insns.add(new TypeInsnNode(NEW, "java/lang/String"));
+        insns.add(new InsnNode(DUP));
+        insns.add(new VarInsnNode(ALOAD, varBuffer));
+        insns.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false));
+        insns.add(new InsnNode(ARETURN));
+        decrypt.maxStack = 8;
+        decrypt.maxLocals = 12;
+        classNode.methods.add(decrypt);
+
+        return classNode;
+    }
+
+    // A miss decrypts under the lock stripe of its index and checks the cache again first, so threads racing
+    // on the same string wait for one decryption while misses on other strings mostly go on in parallel
+    private static InsnList createCacheLock(StringEncryptionContext ctx, int varIndex, int varDecrypted, int varLock, LabelNode lockStartLabel, LabelNode unlockLabel) {
+        final InsnList insns = new InsnList();
+        insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.lockField.name, ctx.lockField.desc));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(ASMUtils.pushInt(CACHE_LOCK_STRIPES - 1));
+        insns.add(new InsnNode(IAND));
+        insns.add(new InsnNode(AALOAD));
+        insns.add(new InsnNode(DUP));
+        insns.add(new VarInsnNode(ASTORE, varLock));
+        insns.add(new InsnNode(MONITORENTER));
+        insns.add(lockStartLabel);
+        insns.add(new FieldInsnNode(GETSTATIC, ctx.classNode.name, ctx.decryptedField.name, ctx.decryptedField.desc));
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new InsnNode(AALOAD));
+        insns.add(new InsnNode(DUP));
+        insns.add(new VarInsnNode(ASTORE, varDecrypted));
+        insns.add(new JumpInsnNode(IFNONNULL, unlockLabel));
+        return insns;
+    }
+
+    // Expects cache, index and the decrypted string on the stack. Added last, so the handler
+    // releasing the monitor comes after any try catch block of the decryption itself
+    private static InsnList createCacheUnlock(MethodNode method, int varDecrypted, int varLock, LabelNode lockStartLabel, LabelNode unlockLabel, LabelNode returnLabel) {
+        final LabelNode handlerLabel = new LabelNode();
+        final InsnList insns = new InsnList();
+        insns.add(new InsnNode(DUP));
+        insns.add(new VarInsnNode(ASTORE, varDecrypted));
+        insns.add(new InsnNode(AASTORE));
+        insns.add(unlockLabel);
+        insns.add(new VarInsnNode(ALOAD, varLock));
+        insns.add(new InsnNode(MONITOREXIT));
+        insns.add(new JumpInsnNode(GOTO, returnLabel));
+        insns.add(handlerLabel);
+        insns.add(new VarInsnNode(ALOAD, varLock));
+        insns.add(new InsnNode(MONITOREXIT));
+        insns.add(new InsnNode(ATHROW));
+        method.tryCatchBlocks.add(new TryCatchBlockNode(lockStartLabel, unlockLabel, handlerLabel, null));
+        return insns;
+    }
+
+    // Encrypted strings are packed into a few string constants, each headed by one char offset per string,
+    // so <clinit> never touches them and an index is only cut out of its chunk when first decrypted
+    private static InsnList createEncryptedLookup(StringEncryptionContext ctx, int varIndex, int varChunk, int varChunkIndex) {
+        final InsnList insns = new InsnList();
+        final List<StringChunk> chunks = ctx.getChunks();
+        final LabelNode foundLabel = new LabelNode();
+
+        for (int i = 0; i < chunks.size(); i++) {
+            StringChunk chunk = chunks.get(i);
+            LabelNode nextLabel = new LabelNode();
+            if (i != chunks.size() - 1) {
+                insns.add(new VarInsnNode(ILOAD, varIndex));
+                insns.add(ASMUtils.pushInt(chunk.end()));
+                insns.add(new JumpInsnNode(IF_ICMPGE, nextLabel));
+            }
+            insns.add(new LdcInsnNode(chunk.data()));
+            insns.add(ASMUtils.pushInt(chunk.base()));
+            if (i != chunks.size() - 1) {
+                insns.add(new JumpInsnNode(GOTO, foundLabel));
+                insns.add(nextLabel);
+            }
+        }
+
+        insns.add(foundLabel);
+        insns.add(new VarInsnNode(ILOAD, varIndex));
+        insns.add(new InsnNode(SWAP));
+        insns.add(new InsnNode(ISUB));
+        insns.add(new VarInsnNode(ISTORE, varChunkIndex));
+        insns.add(new VarInsnNode(ASTORE, varChunk));
+
+        insns.add(new VarInsnNode(ALOAD, varChunk));
+        insns.add(new VarInsnNode(ALOAD, varChunk));
+        insns.add(new VarInsnNode(ILOAD, varChunkIndex));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false));
+        insns.add(new VarInsnNode(ALOAD, varChunk));
+        insns.add(new VarInsnNode(ILOAD, varChunkIndex));
+        insns.add(ASMUtils.pushInt(1));
+        insns.add(new InsnNode(IADD));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false));
+        insns.add(new MethodInsnNode(INVOKEVIRTUAL, "java/lang/String", "substring", "(II)Ljava/lang/String;", false));
+        return insns;
+    }
+
     private InsnList createInitInstructions(StringEncryptionContext ctx) {
         InsnList insns = new InsnList();
         insns.add(new LabelNode());
 
         insns.add(ASMUtils.pushInt(ctx.strings.size()));
         insns.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
-        insns.add(new InsnNode(DUP));
+        insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, ctx.decryptedField.name, ctx.decryptedField.desc));
 
-        for (int i = 0; i < ctx.strings.size(); i++) {
+        insns.add(ASMUtils.pushInt(CACHE_LOCK_STRIPES));
+        insns.add(new TypeInsnNode(ANEWARRAY, "java/lang/Object"));
+        for (int i = 0; i < CACHE_LOCK_STRIPES; i++) {
+            insns.add(new InsnNode(DUP));
             insns.add(ASMUtils.pushInt(i));
-            insns.add(new LdcInsnNode(ctx.encryptString(i)));
+            insns.add(new TypeInsnNode(NEW, "java/lang/Object"));
+            insns.add(new InsnNode(DUP));
+            insns.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false));
             insns.add(new InsnNode(AASTORE));
-            if (i != ctx.strings.size() - 1) {
-                insns.add(new InsnNode(DUP));
-            }
         }
-        insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, ctx.encryptedField.name, ctx.encryptedField.desc));
-
-        insns.add(ASMUtils.pushInt(ctx.strings.size()));
-        insns.add(new TypeInsnNode(ANEWARRAY, "java/lang/String"));
-        insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, ctx.decryptedField.name, ctx.decryptedField.desc));
+        insns.add(new FieldInsnNode(PUTSTATIC, ctx.classNode.name, ctx.lockField.name, ctx.lockField.desc));
+        if (ctx.runtime != null) return insns;
 
         insns.add(ASMUtils.pushInt(256));
         insns.add(new IntInsnNode(NEWARRAY, T_INT));
         insns.add(new InsnNode(DUP));
         for (int i = 0; i < 256; i++) {
             insns.add(ASMUtils.pushInt(i));
-            insns.add(ASMUtils.pushInt(ctx.reverseShuffleMap[i]));
+            insns.add(ASMUtils.pushInt(ctx.tables.reverseShuffleMap[i]));
             insns.add(new InsnNode(IASTORE));
             if (i != 255) {
                 insns.add(new InsnNode(DUP));
@@ -688,7 +1264,7 @@ public class ConstantTransformer extends ClassTransformer {
         insns.add(new InsnNode(DUP));
         for (int i = 0; i < 8; i++) {
             insns.add(ASMUtils.pushInt(i));
-            insns.add(ASMUtils.pushInt(ctx.positionKeys[i]));
+            insns.add(ASMUtils.pushInt(ctx.tables.positionKeys[i]));
             insns.add(new InsnNode(IASTORE));
             if (i != 7) {
                 insns.add(new InsnNode(DUP));
@@ -713,12 +1289,12 @@ public class ConstantTransformer extends ClassTransformer {
         fieldNode.value = null;
     }
 
-    private InsnList convertString(MethodNode methodNode, String str) {
+    private InsnList convertString(LocalAllocator locals, String str) {
         final InsnList insnList = new InsnList();
-        final int varIndex = methodNode.maxLocals + 1;
+        final int varIndex = locals.scratch(Type.getType("[C"));
 
         insnList.add(ASMUtils.pushInt(str.length()));
-        insnList.add(new IntInsnNode(NEWARRAY, T_BYTE));
+        insnList.add(new IntInsnNode(NEWARRAY, T_CHAR));
         insnList.add(new VarInsnNode(ASTORE, varIndex));
 
         ArrayList<Integer> indexes = new ArrayList<>();
@@ -733,20 +1309,20 @@ public class ConstantTransformer extends ClassTransformer {
             if (i == 0) {
                 insnList.add(new VarInsnNode(ALOAD, varIndex));
                 insnList.add(ASMUtils.pushInt(index));
-                insnList.add(ASMUtils.pushInt((byte) random.nextInt(Character.MAX_VALUE)));
-                insnList.add(new InsnNode(BASTORE));
+                insnList.add(ASMUtils.pushInt(random.nextInt(Character.MAX_VALUE)));
+                insnList.add(new InsnNode(CASTORE));
             }
 
             insnList.add(new VarInsnNode(ALOAD, varIndex));
             insnList.add(ASMUtils.pushInt(index));
             insnList.add(ASMUtils.pushInt(ch));
-            insnList.add(new InsnNode(BASTORE));
+            insnList.add(new InsnNode(CASTORE));
         }
 
         insnList.add(new TypeInsnNode(NEW, "java/lang/String"));
         insnList.add(new InsnNode(DUP));
         insnList.add(new VarInsnNode(ALOAD, varIndex));
-        insnList.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([B)V", false));
+        insnList.add(new MethodInsnNode(INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false));
         return insnList;
     }
 
@@ -937,34 +1513,130 @@ public class ConstantTransformer extends ClassTransformer {
         throw new IllegalArgumentException("Insn is not a push int/long/float/double instruction");
     }
 
+    @Override
+    public boolean isDegradable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(() -> ((List<?>) this.getEnableType().type()).contains(this.getBozar().getConfig().getOptions().getConstantObfuscation()),
                 List.of(BozarConfig.BozarOptions.ConstantObfuscationOption.LIGHT, BozarConfig.BozarOptions.ConstantObfuscationOption.FLOW, BozarConfig.BozarOptions.ConstantObfuscationOption.SUPER));
     }
 
-    private static class StringEncryptionContext {
+    private static class HoistedNumberContext {
         final ClassNode classNode;
-        final int keyOfClass;
+        final String baseName = randomLetters(5);
+        final Map<Object, FieldNode> fields = new HashMap<>();
+        final Map<FieldNode, InsnList> initializers = new LinkedHashMap<>();
+        int initBytes;
+
+        HoistedNumberContext(ClassNode classNode) {
+            this.classNode = classNode;
+        }
+
+        void truncate(int fieldCount, int initBytes) {
+            final List<FieldNode> removed = new ArrayList<>(initializers.keySet()).subList(fieldCount, initializers.size());
+            removed.forEach(initializers::remove);
+            fields.values().removeAll(removed);
+            this.initBytes = initBytes;
+        }
+
+        // Null once the <clinit> share is used up, the constant then stays inline
+        FieldNode getField(Object value, InsnList init) {
+            FieldNode field = fields.get(value);
+            if (field != null) return field;
+
+            // No instruction of the chains encodes to more than 3 bytes, plus the PUTSTATIC
+            final int size = (init.size() + 1) * 3;
+            if (initBytes + size > MAX_HOISTED_INIT_BYTES) return null;
+            initBytes += size;
+
+            final String desc = switch (value) {
+                case Integer i -> "I";
+                case Long l -> "J";
+                case Float f -> "F";
+                default -> "D";
+            };
+            field = new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, baseName + fields.size(), desc, null, null);
+            fields.put(value, field);
+            initializers.put(field, init);
+            return field;
+        }
+    }
+
+    private static class LightStringContext {
+        static final int INDEX_MULTIPLIER = 0x9E3779B9;
+        static final int CHAR_MULTIPLIER = 0x2F6B;
+
+        final ClassNode classNode;
+        final int key = ThreadLocalRandom.current().nextInt();
+        final Map<String, Integer> stringIndex = new HashMap<>();
+        final FieldNode cacheField;
+        final String decodeMethodName;
+
+        LightStringContext(ClassNode classNode) {
+            this.classNode = classNode;
+            this.cacheField = new FieldNode(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, randomLetters(6), "[Ljava/lang/String;", null, null);
+            this.decodeMethodName = randomLetters(6);
+        }
+
+        int addString(String s) {
+            return stringIndex.computeIfAbsent(s, str -> stringIndex.size());
+        }
+
+        void truncate(int size) {
+            stringIndex.values().removeIf(index -> index >= size);
+        }
+
+        String encode(String s, int index) {
+            final int stringKey = key ^ (index * INDEX_MULTIPLIER);
+            final char[] chars = s.toCharArray();
+            for (int i = 0; i < chars.length; i++)
+                chars[i] ^= (char) ((stringKey + i) * CHAR_MULTIPLIER);
+            return new String(chars);
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) length += utf8Length(s.charAt(i));
+        return length;
+    }
+
+    private static int utf8Length(char c) {
+        return c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+    }
+
+    // What the contexts of a class held before transformMethod, so a rollback can drop what the method added
+    private record MethodMark(String className, int strings, boolean usesConstantDynamic, int lightStrings, int hoistedFields, int hoistedInitBytes) {
+        MethodMark(String className, StringEncryptionContext ctx, LightStringContext lightCtx, HoistedNumberContext numberCtx) {
+            this(className, ctx != null ? ctx.strings.size() : 0, ctx != null && ctx.usesConstantDynamic,
+                    lightCtx != null ? lightCtx.stringIndex.size() : 0,
+                    numberCtx != null ? numberCtx.fields.size() : 0, numberCtx != null ? numberCtx.initBytes : 0);
+        }
+    }
+
+    private record StringChunk(String data, int base, int end) { }
+
+    private record SharedStringRuntime(String className, String decryptMethodName, String tableFieldName, StringKeyTables tables) { }
+
+    // Key material of the Super string cipher, either owned by one class or shared by the whole jar
+    private static class StringKeyTables {
         final int[] keyMap = new int[256];
         final int[] shuffleMap = new int[256];
         final int[] reverseShuffleMap = new int[256];
-        final List<String> strings = new ArrayList<>();
-        final Map<String, Integer> stringIndex = new HashMap<>();
-        final List<byte[]> keyArrays = new ArrayList<>();
-        final FieldNode encryptedField;
-        final FieldNode decryptedField;
-        final FieldNode shuffleField;
-        final FieldNode positionKeysField;
-        final String decryptMethodName;
-        final long magicSeed;
         final int[] positionKeys = new int[8];
+        final long magicSeed;
         final int positionKey1;
         final int positionKey2;
 
-        StringEncryptionContext(ClassNode classNode) {
-            this.classNode = classNode;
-            this.keyOfClass = ThreadLocalRandom.current().nextInt(0xFFFFFF, Integer.MAX_VALUE);
+        StringKeyTables() {
             this.magicSeed = ThreadLocalRandom.current().nextLong();
             this.positionKey1 = ThreadLocalRandom.current().nextInt();
             this.positionKey2 = ThreadLocalRandom.current().nextInt();
@@ -994,18 +1666,46 @@ public class ConstantTransformer extends ClassTransformer {
             for (int i = 0; i < 256; i++) {
                 reverseShuffleMap[shuffleMap[i]] = i;
             }
+        }
+    }
+
+    private static class StringEncryptionContext {
+        final ClassNode classNode;
+        final int keyOfClass;
+        final int callerKey;
+        final SharedStringRuntime runtime;
+        final StringKeyTables tables;
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> stringIndex = new HashMap<>();
+        final List<byte[]> keyArrays = new ArrayList<>();
+        final FieldNode decryptedField;
+        final FieldNode lockField;
+        final FieldNode shuffleField;
+        final FieldNode positionKeysField;
+        final String decryptMethodName;
+        final String bootstrapMethodName;
+        boolean usesConstantDynamic;
+        List<StringChunk> chunks;
+
+        StringEncryptionContext(ClassNode classNode, SharedStringRuntime runtime) {
+            this.classNode = classNode;
+            this.keyOfClass = ThreadLocalRandom.current().nextInt(0xFFFFFF, Integer.MAX_VALUE);
+            this.runtime = runtime;
+            this.tables = runtime != null ? runtime.tables() : new StringKeyTables();
+            // What the shared runtime computes for a call from this class, the per-class routine expects zero
+            this.callerKey = runtime != null ? classNode.name.replace('/', '.').hashCode() ^ runtime.className().replace('/', '.').hashCode() : 0;
 
             String baseName = generateRandomName();
-            this.encryptedField = new FieldNode(
+            this.decryptedField = new FieldNode(
                     ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
-                    baseName + "E",
+                    baseName + "D",
                     "[Ljava/lang/String;",
                     null, null
             );
-            this.decryptedField = new FieldNode(
+            this.lockField = new FieldNode(
                     ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
-                    baseName + "D",
-                    "[Ljava/lang/String;",
+                    baseName + "L",
+                    "[Ljava/lang/Object;",
                     null, null
             );
             this.shuffleField = new FieldNode(
@@ -1021,6 +1721,14 @@ public class ConstantTransformer extends ClassTransformer {
                     null, null
             );
             this.decryptMethodName = baseName + "X";
+            this.bootstrapMethodName = baseName + "B";
+        }
+
+        void truncate(int size, boolean usesConstantDynamic) {
+            strings.subList(size, strings.size()).clear();
+            keyArrays.subList(size, keyArrays.size()).clear();
+            stringIndex.values().removeIf(index -> index >= size);
+            this.usesConstantDynamic = usesConstantDynamic;
         }
 
         int addString(String s) {
@@ -1049,37 +1757,69 @@ public class ConstantTransformer extends ClassTransformer {
                    (key[7] & 0xFFL);
         }
 
+        List<StringChunk> getChunks() {
+            if (chunks != null) return chunks;
+
+            chunks = new ArrayList<>();
+            int base = 0;
+            while (base < strings.size()) {
+                // Header chars are counted at their worst-case modified UTF-8 size of 3 bytes
+                final List<String> encrypted = new ArrayList<>();
+                int chars = 1, bytes = 3;
+                for (int i = base; i < strings.size(); i++) {
+                    String s = encryptString(i);
+                    int size = utf8Length(s) + 3;
+                    if (!encrypted.isEmpty() && (bytes + size > MAX_CONSTANT_BYTES || chars + s.length() + 1 > Character.MAX_VALUE)) break;
+                    encrypted.add(s);
+                    chars += s.length() + 1;
+                    bytes += size;
+                }
+
+                final StringBuilder header = new StringBuilder(), data = new StringBuilder();
+                int offset = encrypted.size() + 1;
+                for (String s : encrypted) {
+                    header.append((char) offset);
+                    data.append(s);
+                    offset += s.length();
+                }
+                header.append((char) offset);
+                chunks.add(new StringChunk(header.append(data).toString(), base, base + encrypted.size()));
+                base += encrypted.size();
+            }
+            return chunks;
+        }
+
         String encryptString(int index) {
             String plaintext = strings.get(index);
             byte[] key = keyArrays.get(index);
             char[] result = new char[plaintext.length()];
 
-            java.util.Random seedRandom = new java.util.Random(magicSeed ^ index);
+            java.util.Random seedRandom = new java.util.Random(tables.magicSeed ^ index);
             int dynamicKey = seedRandom.nextInt();
 
             int j = 0;
             for (int i = 0; i < plaintext.length(); i++) {
                 if (j == 8) j = 0;
-                int xorKey = keyMap[(i ^ index ^ keyOfClass) & 0xFF];
+                int xorKey = tables.keyMap[(i ^ index ^ keyOfClass) & 0xFF];
 
-                int encrypted = plaintext.charAt(i) ^ keyOfClass ^ xorKey ^ key[j] ^ ((dynamicKey >>> (i % 32)) & 0xFF);
+                int encrypted = plaintext.charAt(i) ^ keyOfClass ^ xorKey ^ key[j] ^ ((dynamicKey >>> (i % 32)) & 0xFF) ^ callerKey;
 
                 int positionXor = switch (i % 8) {
                     case 0 -> i;
-                    case 1 -> positionKey1 ^ positionKey2;
-                    case 2 -> i ^ positionKey2;
-                    case 3 -> positionKey2;
-                    case 4 -> positionKey1;
-                    case 5 -> positionKey1 ^ i;
-                    case 6 -> positionKeys[i % 8];
-                    case 7 -> i ^ positionKeys[i % 8];
+                    case 1 -> tables.positionKey1 ^ tables.positionKey2;
+                    case 2 -> i ^ tables.positionKey2;
+                    case 3 -> tables.positionKey2;
+                    case 4 -> tables.positionKey1;
+                    case 5 -> tables.positionKey1 ^ i;
+                    case 6 -> tables.positionKeys[i % 8];
+                    case 7 -> i ^ tables.positionKeys[i % 8];
                     default -> 0;
                 };
                 encrypted ^= positionXor;
 
                 int lowByte = encrypted & 0xFF;
                 int highBits = encrypted & 0xFF00;
-                result[i] = (char) (highBits | shuffleMap[lowByte]);
+                result[i] = (char) (highBits | tables.shuffleMap[lowByte]);
                 j++;
             }
 
@@ -4,13 +4,16 @@ import cn.jeyor1337.bozarxd.obfuscator.Bozar;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.ControlFlowTransformer;
 import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.InsnBuilder;
+import cn.jeyor1337.bozarxd.obfuscator.utils.LocalAllocator;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
 import java.util.Arrays;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 public class HeavyControlFlowTransformer extends ControlFlowTransformer {
 
@@ -25,13 +28,17 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
     public void transformClass(ClassNode classNode) {
 
         if(!ASMUtils.isClassEligibleToModify(classNode)) return;
-        classNode.fields.add(new FieldNode(accessArr[ThreadLocalRandom.current().nextInt(accessArr.length)] | ACC_STATIC, FLOW_FIELD_NAME, "J", null, 0L));
+        classNode.fields.add(this.createFlowField(classNode, accessArr[ThreadLocalRandom.current().nextInt(accessArr.length)], FLOW_FIELD_NAME, 0L));
     }
 
     @Override
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {
         if(!ASMUtils.isMethodEligibleToModify(classNode, methodNode)) return;
 
+        final Set<AbstractInsnNode> loopInsns = this.getLoopInstructions(methodNode, this.getPerformanceOptions().getControlFlowLoopPolicy());
+        final LocalAllocator locals = new LocalAllocator(methodNode);
+        final int nullHolder = locals.allocate(Type.getType(Object.class));
+
         if(Arrays.stream(methodNode.instructions.toArray()).noneMatch(ASMUtils::isIf)) {
             final InsnList il = new InsnList();
             final LabelNode label0 = new LabelNode();
@@ -48,6 +55,7 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
 
         Arrays.stream(methodNode.instructions.toArray())
                 .filter(insn -> ASMUtils.isInvokeMethod(insn, true) || insn.getOpcode() == NEW || ASMUtils.isFieldInsn(insn))
+                .filter(insn -> this.isGuardAllowed(loopInsns, insn))
                 .forEach(insn -> {
                     final InsnList before = new InsnList();
                     final InsnList after = new InsnList();
@@ -96,11 +104,15 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
                         }
                     }
 
+                    // The jump pass sees the guard of loop code as loop code, its back edge is not a loop
+                    if (loopInsns.contains(insn))
+                        Stream.of(before.toArray(), after.toArray()).flatMap(Arrays::stream).filter(ASMUtils::isIf).forEach(loopInsns::add);
                     methodNode.instructions.insertBefore(insn, before);
                     methodNode.instructions.insert(insn, after);
                 });
         Arrays.stream(methodNode.instructions.toArray())
                 .filter(ASMUtils::isIf)
+                .filter(insn -> this.isGuardAllowed(loopInsns, insn))
                 .map(insn -> (JumpInsnNode)insn)
                 .forEach(jump -> {
                     var label0 = new LabelNode();
@@ -153,10 +165,10 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
                             before.add(ASMUtils.pushLong(jVar));
                             before.add(new InsnNode(LCMP));
                             before.add(new JumpInsnNode(IFNE, label1));
-                            before.add(new VarInsnNode(ALOAD, methodNode.maxLocals + 4));
+                            before.add(new VarInsnNode(ALOAD, nullHolder));
                             before.add(new JumpInsnNode(IFNULL, label3));
                             before.add(getNullLDC());
-                            before.add(new VarInsnNode(ASTORE, methodNode.maxLocals + 4));
+                            before.add(new VarInsnNode(ASTORE, nullHolder));
                             before.add(ASMUtils.pushLong(-5));
                             before.add(new JumpInsnNode(GOTO, label4));
                             before.add(label3);
@@ -164,7 +176,7 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
                         case 1 -> {
                             int lcmpResult = (jVar == 0) ? 0 : (jVar < 0) ? 1 : -1;
                             before.add(new InsnNode(LCMP));
-                            int index = methodNode.maxLocals + 3;
+                            int index = locals.scratch(Type.INT_TYPE);
                             before.add(new VarInsnNode(ISTORE, index));
                             before.add(new VarInsnNode(ILOAD, index));
                             before.add(lcmpResult == 0 ? new JumpInsnNode(IFNE, label0) : new JumpInsnNode(IFEQ, label0));
@@ -194,7 +206,7 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
                     this.injectInstructions(methodNode, jump, start, before, after, end);
                 });
 
-        methodNode.instructions.insert(new VarInsnNode(ASTORE, methodNode.maxLocals + 4));
+        methodNode.instructions.insert(new VarInsnNode(ASTORE, nullHolder));
         methodNode.instructions.insert(new InsnNode(ACONST_NULL));
     }
 
@@ -219,6 +231,16 @@ public class HeavyControlFlowTransformer extends ControlFlowTransformer {
         methodNode.instructions.add(end);
     }
 
+    @Override
+    public boolean isDegradable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(() -> this.getBozar().getConfig().getOptions().getControlFlowObfuscation() == this.getEnableType().type(), BozarConfig.BozarOptions.ControlFlowObfuscationOption.HEAVY);
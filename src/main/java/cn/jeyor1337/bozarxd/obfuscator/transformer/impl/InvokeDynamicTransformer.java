@@ -313,6 +313,16 @@ public class InvokeDynamicTransformer extends ClassTransformer {
         return true;
     }
 
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
+    @Override
+    public boolean isUnstable() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(() -> this.getBozar().getConfig().getOptions().isInvokeDynamic(), boolean.class);
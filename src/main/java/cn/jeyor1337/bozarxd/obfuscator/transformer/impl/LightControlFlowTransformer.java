@@ -9,6 +9,7 @@ import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 import org.objectweb.asm.tree.*;
 
 import java.util.Arrays;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class LightControlFlowTransformer extends ControlFlowTransformer {
@@ -27,15 +28,17 @@ public class LightControlFlowTransformer extends ControlFlowTransformer {
         if(!ASMUtils.isClassEligibleToModify(classNode)) return;
 
         this.flowFieldValue = ThreadLocalRandom.current().nextLong();
-        classNode.fields.add(new FieldNode(accessArr[ThreadLocalRandom.current().nextInt(accessArr.length)] | ACC_STATIC, FLOW_FIELD_NAME, "J", null, this.flowFieldValue));
+        classNode.fields.add(this.createFlowField(classNode, accessArr[ThreadLocalRandom.current().nextInt(accessArr.length)], FLOW_FIELD_NAME, this.flowFieldValue));
     }
 
     @Override
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {
         if(!ASMUtils.isMethodEligibleToModify(classNode, methodNode)) return;
 
+        final Set<AbstractInsnNode> loopInsns = this.getLoopInstructions(methodNode, this.getPerformanceOptions().getControlFlowLoopPolicy());
         Arrays.stream(methodNode.instructions.toArray())
                 .filter(insn -> ASMUtils.isInvokeMethod(insn, true) || insn.getOpcode() == NEW || ASMUtils.isFieldInsn(insn))
+                .filter(insn -> this.isGuardAllowed(loopInsns, insn))
                 .forEach(insn -> {
                     final LabelNode label0 = new LabelNode();
                     final LabelNode label1 = new LabelNode();
@@ -95,6 +98,16 @@ public class LightControlFlowTransformer extends ControlFlowTransformer {
                 });
     }
 
+    @Override
+    public boolean isDegradable() {
+        return true;
+    }
+
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(() -> this.getBozar().getConfig().getOptions().getControlFlowObfuscation() == this.getEnableType().type(), BozarConfig.BozarOptions.ControlFlowObfuscationOption.LIGHT);
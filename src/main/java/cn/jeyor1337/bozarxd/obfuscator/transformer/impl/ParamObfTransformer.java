@@ -2,8 +2,11 @@ package cn.jeyor1337.bozarxd.obfuscator.transformer.impl;
 
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.ClassTransformer;
+import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
@@ -13,6 +16,10 @@ public class ParamObfTransformer extends ClassTransformer {
 
     private static final int MIN_EXTRA_PARAMS = 2;
     private static final int MAX_EXTRA_PARAMS = 4;
+    // Private methods the JVM itself looks up by name
+    private static final Set<String> SERIALIZATION_METHODS = Set.of("writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve");
+
+    private enum PredicateMode { FULL, COMPACT, NONE }
 
     private static class ParamEntry {
         final Type type;
@@ -43,15 +50,17 @@ public class ParamObfTransformer extends ClassTransformer {
         final int[] originalToShuffledIndex;
         final int expectedXor;
         final boolean isStatic;
+        final boolean isPrivate;
 
         MethodObfData(String obfMethodName, String obfMethodDesc, List<ParamEntry> shuffledParams,
-                      int[] originalToShuffledIndex, int expectedXor, boolean isStatic) {
+                      int[] originalToShuffledIndex, int expectedXor, boolean isStatic, boolean isPrivate) {
             this.obfMethodName = obfMethodName;
             this.obfMethodDesc = obfMethodDesc;
             this.shuffledParams = shuffledParams;
             this.originalToShuffledIndex = originalToShuffledIndex;
             this.expectedXor = expectedXor;
             this.isStatic = isStatic;
+            this.isPrivate = isPrivate;
         }
     }
 
@@ -59,12 +68,17 @@ public class ParamObfTransformer extends ClassTransformer {
 
     private final Map<String, List<MethodNode>> methodsToProcess = new HashMap<>();
 
+    private final Set<String> obfuscatedNameDescs = new HashSet<>();
+    private final Set<String> stringConstants = new HashSet<>();
+
     public ParamObfTransformer(Bozar bozar) {
         super(bozar, "Parameter Obfuscation", BozarCategory.ADVANCED);
     }
 
     @Override
     public void pre() {
+        obfuscatedNameDescs.clear();
+        stringConstants.clear();
 
         for (ClassNode classNode : this.getBozar().getClasses()) {
             Map<String, MethodObfData> methodMap = new HashMap<>();
@@ -74,6 +88,7 @@ public class ParamObfTransformer extends ClassTransformer {
                     String methodKey = methodNode.name + methodNode.desc;
                     MethodObfData obfData = createObfuscationData(classNode, methodNode);
                     methodMap.put(methodKey, obfData);
+                    obfuscatedNameDescs.add(methodKey);
 
                     this.getBozar().log("Preparing param obfuscation for %s.%s%s -> %s%s (shuffled)",
                         classNode.name, methodNode.name, methodNode.desc,
@@ -84,9 +99,20 @@ public class ParamObfTransformer extends ClassTransformer {
             if (!methodMap.isEmpty()) {
                 classMethodMap.put(classNode.name, methodMap);
             }
+
+            // Strings are collected before other transformers encrypt them, any of them may name a method looked up reflectively
+            if (this.isClosedWorld())
+                classNode.methods.forEach(methodNode -> methodNode.instructions.forEach(insn -> {
+                    if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String)
+                        stringConstants.add((String) ((LdcInsnNode) insn).cst);
+                }));
         }
     }
 
+    private boolean isClosedWorld() {
+        return this.getPerformanceOptions().isRemoveParamBridges();
+    }
+
     @Override
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {
         Map<String, MethodObfData> methodMap = classMethodMap.get(classNode.name);
@@ -110,6 +136,9 @@ public class ParamObfTransformer extends ClassTransformer {
     @Override
     public void post() {
 
+        final BridgeReferences references = this.isClosedWorld() ? new BridgeReferences(this.getBozar().getClasses()) : null;
+        int removedBridges = 0;
+
         for (ClassNode classNode : this.getBozar().getClasses()) {
             List<MethodNode> methods = methodsToProcess.get(classNode.name);
             if (methods == null) continue;
@@ -124,9 +153,15 @@ public class ParamObfTransformer extends ClassTransformer {
                 MethodObfData obfData = methodMap.get(methodKey);
                 if (obfData == null) continue;
 
-                MethodNode obfMethod = createObfuscatedMethod(classNode, originalMethod, obfData);
+                MethodNode obfMethod = this.createInlineFriendlyMethod(classNode, originalMethod, obfData);
                 newMethods.add(obfMethod);
 
+                if (references != null && this.isBridgeRemovable(originalMethod, references)) {
+                    classNode.methods.remove(originalMethod);
+                    removedBridges++;
+                    continue;
+                }
+
                 convertToBridge(classNode, originalMethod, obfData);
 
                 this.getBozar().log("Created bridge method %s.%s -> %s",
@@ -135,8 +170,74 @@ public class ParamObfTransformer extends ClassTransformer {
 
             classNode.methods.addAll(newMethods);
         }
+
+        if (removedBridges > 0)
+            this.getBozar().log("Removed %d unreachable parameter obfuscation bridges", removedBridges);
+    }
+
+    // Small methods get a cheaper predicate, or none, so that they stay below the JIT inlining limit
+    private MethodNode createInlineFriendlyMethod(ClassNode classNode, MethodNode originalMethod, MethodObfData obfData) {
+        final int inlineSize = this.getPerformanceOptions().getParamInlineSize();
+        if (inlineSize <= 0) return createObfuscatedMethod(classNode, originalMethod, obfData, PredicateMode.FULL);
+
+        final int originalSize = ASMUtils.getCodeSize(originalMethod);
+        if (originalSize > inlineSize) return createObfuscatedMethod(classNode, originalMethod, obfData, PredicateMode.FULL);
+
+        MethodNode obfMethod = null;
+        for (PredicateMode mode : PredicateMode.values()) {
+            obfMethod = createObfuscatedMethod(classNode, originalMethod, obfData, mode);
+            if (ASMUtils.getCodeSize(obfMethod) <= inlineSize) return obfMethod;
+        }
+
+        this.getBozar().log("Method %s.%s%s is no longer inlinable after parameter obfuscation (%d -> %d bytes, limit %d)",
+            classNode.name, originalMethod.name, originalMethod.desc, originalSize, ASMUtils.getCodeSize(obfMethod), inlineSize);
+        return obfMethod;
+    }
+
+    // Every call site was rewritten and nothing can reach the original by name, handle or reflection
+    private boolean isBridgeRemovable(MethodNode methodNode, BridgeReferences references) {
+        if ((methodNode.access & (ACC_PUBLIC | ACC_PROTECTED)) != 0) return false;
+        if (methodNode.visibleAnnotations != null && !methodNode.visibleAnnotations.isEmpty()) return false;
+        if (SERIALIZATION_METHODS.contains(methodNode.name) || stringConstants.contains(methodNode.name)) return false;
+        return !references.nameDescs.contains(methodNode.name + methodNode.desc) && !references.indyDescs.contains(methodNode.desc);
     }
 
+    private static class BridgeReferences {
+        final Set<String> nameDescs = new HashSet<>();
+        // Call sites hidden behind a custom bootstrap only reveal their descriptor, plus the receiver for virtual calls
+        final Set<String> indyDescs = new HashSet<>();
+
+        BridgeReferences(List<ClassNode> classes) {
+            for (ClassNode classNode : classes)
+                for (MethodNode methodNode : classNode.methods)
+                    for (AbstractInsnNode insn : methodNode.instructions) {
+                        if (insn instanceof MethodInsnNode methodInsn) {
+                            nameDescs.add(methodInsn.name + methodInsn.desc);
+                        } else if (insn instanceof InvokeDynamicInsnNode indy) {
+                            this.addConstant(indy.bsm);
+                            for (Object arg : indy.bsmArgs) this.addConstant(arg);
+                            if (!indy.bsm.getOwner().startsWith("java/")) {
+                                indyDescs.add(indy.desc);
+                                Type[] args = Type.getArgumentTypes(indy.desc);
+                                if (args.length > 0 && args[0].getSort() == Type.OBJECT)
+                                    indyDescs.add(Type.getMethodDescriptor(Type.getReturnType(indy.desc), Arrays.copyOfRange(args, 1, args.length)));
+                            }
+                        } else if (insn instanceof LdcInsnNode ldc) {
+                            this.addConstant(ldc.cst);
+                        }
+                    }
+        }
+
+        private void addConstant(Object cst) {
+            if (cst instanceof Handle handle) {
+                nameDescs.add(handle.getName() + handle.getDesc());
+            } else if (cst instanceof ConstantDynamic condy) {
+                this.addConstant(condy.getBootstrapMethod());
+                for (int i = 0; i < condy.getBootstrapMethodArgumentCount(); i++)
+                    this.addConstant(condy.getBootstrapMethodArgument(i));
+            }
+        }
+    }
     private void updateMethodCalls(ClassNode classNode, MethodNode methodNode) {
         AbstractInsnNode[] instructions = methodNode.instructions.toArray();
 
@@ -144,10 +245,13 @@ public class ParamObfTransformer extends ClassTransformer {
             if (!(insn instanceof MethodInsnNode)) continue;
 
             MethodInsnNode methodInsn = (MethodInsnNode) insn;
+            String callKey = methodInsn.name + methodInsn.desc;
+            if (this.isClosedWorld() && obfuscatedNameDescs.contains(callKey))
+                this.resolveInheritedOwner(methodInsn);
+
             Map<String, MethodObfData> targetMethodMap = classMethodMap.get(methodInsn.owner);
             if (targetMethodMap == null) continue;
 
-            String callKey = methodInsn.name + methodInsn.desc;
             MethodObfData obfData = targetMethodMap.get(callKey);
             if (obfData == null) continue;
 
@@ -161,6 +265,29 @@ public class ParamObfTransformer extends ClassTransformer {
         }
     }
 
+    // Calls through a subclass name the declaring class directly, so they can skip the bridge too
+    private void resolveInheritedOwner(MethodInsnNode methodInsn) {
+        final String callKey = methodInsn.name + methodInsn.desc;
+        Map<String, MethodObfData> methodMap = classMethodMap.get(methodInsn.owner);
+        if (methodMap != null && methodMap.containsKey(callKey)) return;
+
+        ClassNode classNode = this.findClass(methodInsn.owner);
+        while (classNode != null && ASMUtils.findMethod(classNode, methodInsn.name, methodInsn.desc) == null) {
+            if (classNode.superName == null) return;
+
+            methodMap = classMethodMap.get(classNode.superName);
+            MethodObfData obfData = methodMap == null ? null : methodMap.get(callKey);
+            if (obfData != null) {
+                // Protected members have receiver checks across packages, only package-private ones are moved
+                MethodNode target = ASMUtils.findMethod(this.findClass(classNode.superName), methodInsn.name, methodInsn.desc);
+                if (!obfData.isPrivate && target != null && (target.access & (ACC_PUBLIC | ACC_PROTECTED)) == 0)
+                    methodInsn.owner = classNode.superName;
+                return;
+            }
+            classNode = this.findClass(classNode.superName);
+        }
+    }
+
     private void reorderCallArguments(MethodNode callerMethod, MethodInsnNode callInsn, MethodObfData obfData) {
 
         Type[] originalArgs = Type.getArgumentTypes(callInsn.desc);
@@ -269,7 +396,7 @@ public class ParamObfTransformer extends ClassTransformer {
         String obfMethodDesc = buildShuffledDescriptor(shuffledParams, Type.getReturnType(methodNode.desc));
 
         return new MethodObfData(obfMethodName, obfMethodDesc, shuffledParams,
-                originalToShuffledIndex, xorResult, isStatic);
+                originalToShuffledIndex, xorResult, isStatic, (methodNode.access & ACC_PRIVATE) != 0);
     }
 
     private String generateObfMethodName(ClassNode classNode, String originalName) {
@@ -298,10 +425,11 @@ public class ParamObfTransformer extends ClassTransformer {
         return sb.toString();
     }
 
-    private MethodNode createObfuscatedMethod(ClassNode classNode, MethodNode originalMethod, MethodObfData obfData) {
+    private MethodNode createObfuscatedMethod(ClassNode classNode, MethodNode originalMethod, MethodObfData obfData, PredicateMode mode) {
 
+        // Same visibility as the original, rewritten call sites in other classes of the package must still link
         MethodNode obfMethod = new MethodNode(
-            ACC_PRIVATE | ACC_SYNTHETIC | (originalMethod.access & ACC_STATIC),
+            ACC_SYNTHETIC | (originalMethod.access & (ACC_STATIC | ACC_PRIVATE | ACC_PROTECTED)),
             obfData.obfMethodName,
             obfData.obfMethodDesc,
             null,
@@ -348,7 +476,7 @@ public class ParamObfTransformer extends ClassTransformer {
 
         InsnList newInsns = new InsnList();
 
-        newInsns.add(generateOpaquePredicate(obfData, newParamVarIndex));
+        newInsns.add(generateOpaquePredicate(obfData, newParamVarIndex, mode));
 
         Map<LabelNode, LabelNode> labelMap = new HashMap<>();
         for (AbstractInsnNode insn : originalMethod.instructions) {
@@ -388,7 +516,8 @@ public class ParamObfTransformer extends ClassTransformer {
                 fakeParamsSize += entry.type.getSize();
             }
         }
-        obfMethod.maxStack = originalMethod.maxStack + 10;
+        // The predicate needs at most three slots: two XOR operands, or NEW, DUP and the message of the dead code
+        obfMethod.maxStack = Math.max(originalMethod.maxStack, 3);
         obfMethod.maxLocals = originalMethod.maxLocals + fakeParamsSize + localsShift;
 
         if (originalMethod.localVariables != null) {
@@ -425,8 +554,10 @@ public class ParamObfTransformer extends ClassTransformer {
         return obfMethod;
     }
 
-    private InsnList generateOpaquePredicate(MethodObfData obfData, int[] newParamVarIndex) {
+    private InsnList generateOpaquePredicate(MethodObfData obfData, int[] newParamVarIndex, PredicateMode mode) {
         InsnList insns = new InsnList();
+        if (mode == PredicateMode.NONE) return insns;
+        if (mode == PredicateMode.COMPACT) return generateCompactPredicate(obfData, newParamVarIndex);
 
         LabelNode continueLabel = new LabelNode();
 
@@ -461,6 +592,33 @@ public class ParamObfTransformer extends ClassTransformer {
         return insns;
     }
 
+    // Checks a single fake parameter and throws null, a few bytes instead of the full XOR chain
+    private InsnList generateCompactPredicate(MethodObfData obfData, int[] newParamVarIndex) {
+        InsnList insns = new InsnList();
+        LabelNode continueLabel = new LabelNode();
+
+        for (int i = 0; i < obfData.shuffledParams.size(); i++) {
+            ParamEntry entry = obfData.shuffledParams.get(i);
+            if (!entry.isFake()) continue;
+
+            if (entry.type.getSort() == Type.LONG) {
+                insns.add(new VarInsnNode(LLOAD, newParamVarIndex[i]));
+                insns.add(new InsnNode(L2I));
+            } else {
+                insns.add(new VarInsnNode(ILOAD, newParamVarIndex[i]));
+            }
+            insns.add(pushIntValue(entry.magicValue));
+            break;
+        }
+
+        insns.add(new JumpInsnNode(IF_ICMPEQ, continueLabel));
+        insns.add(new InsnNode(ACONST_NULL));
+        insns.add(new InsnNode(ATHROW));
+        insns.add(continueLabel);
+        insns.add(new FrameNode(F_SAME, 0, null, 0, null));
+        return insns;
+    }
+
     private InsnList generateDeadCode() {
         InsnList insns = new InsnList();
 
@@ -592,6 +750,10 @@ public class ParamObfTransformer extends ClassTransformer {
             return false;
         }
 
+        if (this.getBozar().getTransformHandler().isHotMethod(classNode, methodNode)) {
+            return false;
+        }
+
         BozarConfig.BozarOptions.ParamObfuscationOption level =
             this.getBozar().getConfig().getOptions().getParamObfuscation();
 
@@ -658,6 +820,16 @@ public class ParamObfTransformer extends ClassTransformer {
         return false;
     }
 
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
+    @Override
+    public boolean isUnstable() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(
@@ -76,16 +76,35 @@ public class SuperControlFlowTransformer extends ControlFlowTransformer {
 
         FieldVisitor fv = handlerClass.visitField(ACC_PUBLIC, "o", "Ljava/lang/Object;", null, null);
         fv.visitEnd();
+        fv = handlerClass.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, "p", "L" + exceptionHandlerName + ";", null, null);
+        fv.visitEnd();
 
+        // Stackless: no suppression list and no stack trace, so a throw costs about as much as a branch once compiled
         MethodVisitor mv = handlerClass.visitMethod(ACC_PUBLIC, "<init>", "(Ljava/lang/Object;)V", null, null);
         mv.visitCode();
         mv.visitVarInsn(ALOAD, 0);
-        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Throwable", "<init>", "()V", false);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(ICONST_0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Throwable", "<init>", "(Ljava/lang/String;Ljava/lang/Throwable;ZZ)V", false);
         mv.visitVarInsn(ALOAD, 0);
         mv.visitVarInsn(ALOAD, 1);
         mv.visitFieldInsn(PUTFIELD, exceptionHandlerName, "o", "Ljava/lang/Object;");
         mv.visitInsn(RETURN);
-        mv.visitMaxs(2, 2);
+        mv.visitMaxs(5, 2);
+        mv.visitEnd();
+
+        // Preallocated instance for the jumps that carry no value
+        mv = handlerClass.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, exceptionHandlerName);
+        mv.visitInsn(DUP);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitMethodInsn(INVOKESPECIAL, exceptionHandlerName, "<init>", "(Ljava/lang/Object;)V", false);
+        mv.visitFieldInsn(PUTSTATIC, exceptionHandlerName, "p", "L" + exceptionHandlerName + ";");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(3, 0);
         mv.visitEnd();
 
         this.getBozar().getClasses().add(handlerClass);
@@ -104,6 +123,7 @@ public class SuperControlFlowTransformer extends ControlFlowTransformer {
     @Override
     public void transformMethod(ClassNode classNode, MethodNode methodNode) {
         if (!ASMUtils.isMethodEligibleToModify(classNode, methodNode)) return;
+        if (classNode.name.equals(this.exceptionHandlerName)) return;
         if (shouldSkipMethod(methodNode)) return;
 
         this.methodSeed = classSeed ^ (++transformCounter * HASH_PRIME_1);
@@ -567,7 +587,7 @@ public class SuperControlFlowTransformer extends ControlFlowTransformer {
         LabelNode tryEnd = new LabelNode();
         LabelNode handler = new LabelNode();
 
-        String exType = "java/lang/RuntimeException";
+        String exType = this.exceptionHandlerName != null ? this.exceptionHandlerName : "java/lang/RuntimeException";
 
         InsnList exceptionBlock = new InsnList();
 
@@ -581,9 +601,13 @@ public class SuperControlFlowTransformer extends ControlFlowTransformer {
         exceptionBlock.add(new InsnNode(ATHROW));
 
         exceptionBlock.add(throwLabel);
-        exceptionBlock.add(new TypeInsnNode(NEW, exType));
-        exceptionBlock.add(new InsnNode(DUP));
-        exceptionBlock.add(new MethodInsnNode(INVOKESPECIAL, exType, "<init>", "()V", false));
+        if (this.exceptionHandlerName != null) {
+            exceptionBlock.add(new FieldInsnNode(GETSTATIC, exType, "p", "L" + exType + ";"));
+        } else {
+            exceptionBlock.add(new TypeInsnNode(NEW, exType));
+            exceptionBlock.add(new InsnNode(DUP));
+            exceptionBlock.add(new MethodInsnNode(INVOKESPECIAL, exType, "<init>", "()V", false));
+        }
         exceptionBlock.add(new InsnNode(ATHROW));
         exceptionBlock.add(tryEnd);
 
@@ -742,6 +766,16 @@ public class SuperControlFlowTransformer extends ControlFlowTransformer {
         return targetIndex < jumpIndex;
     }
 
+    @Override
+    public boolean hasRuntimeCost() {
+        return true;
+    }
+
+    @Override
+    public boolean isUnstable() {
+        return true;
+    }
+
     @Override
     public BozarConfig.EnableType getEnableType() {
         return new BozarConfig.EnableType(
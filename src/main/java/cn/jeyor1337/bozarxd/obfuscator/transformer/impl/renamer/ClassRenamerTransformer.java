@@ -2,20 +2,61 @@ package cn.jeyor1337.bozarxd.obfuscator.transformer.impl.renamer;
 
 import cn.jeyor1337.bozarxd.obfuscator.Bozar;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.RenamerTransformer;
+import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarCategory;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.BozarConfig;
 import cn.jeyor1337.bozarxd.obfuscator.utils.model.ResourceWrapper;
 import org.objectweb.asm.tree.ClassNode;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 public class ClassRenamerTransformer extends RenamerTransformer {
 
+    private final Map<String, String> packageMap = new HashMap<>();
+    private Set<String> pinnedPackages;
+
     public ClassRenamerTransformer(Bozar bozar) {
         super(bozar, "Rename", BozarCategory.STABLE);
     }
 
     @Override
     public void transformClass(ClassNode classNode) {
-        this.registerMap(classNode.name);
+        String name = this.registerMap(classNode.name);
+        String targetPackage = this.getTargetPackage(classNode.name);
+        if (!targetPackage.isEmpty())
+            this.registerMap(classNode.name, targetPackage + name);
+    }
+
+    private String getTargetPackage(String className) {
+        // Classes kept out of renaming stay in their package, so renamed neighbours must stay too or package-private access breaks
+        if (this.pinnedPackages == null)
+            this.pinnedPackages = this.getBozar().getClasses().stream()
+                    .filter(cn -> this.getBozar().isExcluded(this, ASMUtils.getName(cn)))
+                    .map(cn -> ASMUtils.parentName(cn.name))
+                    .collect(Collectors.toSet());
+
+        final String originalPackage = ASMUtils.parentName(className);
+        if (this.pinnedPackages.contains(originalPackage)) return originalPackage;
+
+        var options = this.getBozar().getConfig().getOptions().getPerformanceOptions();
+        return switch (options.getRepackage()) {
+            case FLATTEN -> "";
+            case KEEP -> originalPackage;
+            case SHORT -> this.packageMap.computeIfAbsent(originalPackage, pkg -> getShortPackageName(this.packageMap.size()) + "/");
+            case SINGLE -> options.getRepackageName().isEmpty() ? "" : options.getRepackageName().replace('.', '/') + "/";
+        };
+    }
+
+    private static String getShortPackageName(int index) {
+        final StringBuilder sb = new StringBuilder();
+        do {
+            sb.insert(0, (char) ('a' + index % 26));
+            index = index / 26 - 1;
+        } while (index >= 0);
+        return sb.toString();
     }
 
     @Override
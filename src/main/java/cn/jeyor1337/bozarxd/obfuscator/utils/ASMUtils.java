@@ -1,6 +1,10 @@
 package cn.jeyor1337.bozarxd.obfuscator.utils;
 
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.CodeSizeEvaluator;
@@ -8,6 +12,7 @@ import org.objectweb.asm.tree.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -155,16 +160,119 @@ public class ASMUtils implements Opcodes {
         return insnList;
     }
 
+    // Copy of the code with labels of its own. Transformers change jump targets, try catch blocks and
+    // local variables in place, so a copy of the instruction array alone cannot undo them
+    public static MethodNode copyCode(MethodNode methodNode) {
+        final Map<Label, LabelNode> labels = new HashMap<>();
+        final MethodNode copy = new MethodNode(ASM9, methodNode.access, methodNode.name, methodNode.desc, methodNode.signature, null) {
+            @Override
+            protected LabelNode getLabelNode(Label label) {
+                return labels.computeIfAbsent(label, key -> new LabelNode());
+            }
+        };
+        methodNode.accept(copy);
+        return copy;
+    }
+
+    // Puts back the code of a copyCode snapshot, which stays usable for further restores
+    public static void restoreCode(MethodNode methodNode, MethodNode snapshot) {
+        final MethodNode copy = copyCode(snapshot);
+        methodNode.instructions = copy.instructions;
+        methodNode.tryCatchBlocks = copy.tryCatchBlocks;
+        methodNode.localVariables = copy.localVariables;
+        methodNode.visibleLocalVariableAnnotations = copy.visibleLocalVariableAnnotations;
+        methodNode.invisibleLocalVariableAnnotations = copy.invisibleLocalVariableAnnotations;
+        methodNode.maxLocals = snapshot.maxLocals;
+        methodNode.maxStack = snapshot.maxStack;
+    }
+
     public static boolean isMethodSizeValid(MethodNode methodNode) {
         return getCodeSize(methodNode) <= 65536;
     }
 
+    // Whether the constant pool and all methods of the class, plus the given ones, still fit in a class file
+    public static boolean isClassSizeValid(ClassNode classNode, List<MethodNode> extraMethods) {
+        try {
+            var classWriter = new ClassWriter(0);
+            classNode.accept(new ClassVisitor(ASM9, classWriter) {
+                @Override
+                public void visitEnd() {
+                    extraMethods.forEach(methodNode -> methodNode.accept(this));
+                    super.visitEnd();
+                }
+            });
+            classWriter.toByteArray();
+            return true;
+        } catch (ClassTooLargeException | MethodTooLargeException e) {
+            return false;
+        }
+    }
+
     public static int getCodeSize(MethodNode methodNode) {
         CodeSizeEvaluator cse = new CodeSizeEvaluator(null);
         methodNode.accept(cse);
         return cse.getMaxSize();
     }
 
+    // Hash of everything the method's stack map frames depend on. Line numbers and local variable tables are left out
+    public static long getCodeFingerprint(ClassNode classNode, MethodNode methodNode) {
+        final Map<LabelNode, Integer> labels = new HashMap<>();
+        methodNode.instructions.forEach(insn -> {
+            if (insn instanceof LabelNode labelNode) labels.put(labelNode, labels.size());
+        });
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(classNode.name).append(' ').append(classNode.superName).append(' ').append(classNode.version)
+                .append(' ').append(methodNode.desc).append(' ').append(methodNode.access & ACC_STATIC).append('\n');
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            if (insn instanceof LineNumberNode) continue;
+            sb.append(insn.getOpcode()).append(':');
+            switch (insn) {
+                case LabelNode labelNode -> sb.append('L').append(labels.get(labelNode));
+                case IntInsnNode intInsn -> sb.append(intInsn.operand);
+                case VarInsnNode varInsn -> sb.append(varInsn.var);
+                case TypeInsnNode typeInsn -> sb.append(typeInsn.desc);
+                case FieldInsnNode fieldInsn -> sb.append(fieldInsn.owner).append('.').append(fieldInsn.name).append(fieldInsn.desc);
+                case MethodInsnNode methodInsn -> sb.append(methodInsn.owner).append('.').append(methodInsn.name).append(methodInsn.desc).append(methodInsn.itf);
+                case InvokeDynamicInsnNode indy -> sb.append(indy.name).append(indy.desc).append(indy.bsm).append(Arrays.toString(indy.bsmArgs));
+                case JumpInsnNode jumpInsn -> sb.append(labels.get(jumpInsn.label));
+                case LdcInsnNode ldc -> sb.append(ldc.cst.getClass().getSimpleName()).append(ldc.cst);
+                case IincInsnNode iinc -> sb.append(iinc.var).append(',').append(iinc.incr);
+                case TableSwitchInsnNode tableSwitch -> {
+                    sb.append(tableSwitch.min).append(',').append(tableSwitch.max).append(',').append(labels.get(tableSwitch.dflt));
+                    tableSwitch.labels.forEach(label -> sb.append(',').append(labels.get(label)));
+                }
+                case LookupSwitchInsnNode lookupSwitch -> {
+                    sb.append(lookupSwitch.keys).append(',').append(labels.get(lookupSwitch.dflt));
+                    lookupSwitch.labels.forEach(label -> sb.append(',').append(labels.get(label)));
+                }
+                case MultiANewArrayInsnNode multiArray -> sb.append(multiArray.desc).append(multiArray.dims);
+                case FrameNode frame -> {
+                    sb.append(frame.type);
+                    appendFrameTypes(sb, frame.local, labels);
+                    appendFrameTypes(sb, frame.stack, labels);
+                }
+                default -> { }
+            }
+            sb.append('\n');
+        }
+        if (methodNode.tryCatchBlocks != null)
+            methodNode.tryCatchBlocks.forEach(tcb -> sb.append(labels.get(tcb.start)).append(',').append(labels.get(tcb.end))
+                    .append(',').append(labels.get(tcb.handler)).append(',').append(tcb.type).append('\n'));
+
+        // 64-bit FNV-1a, String.hashCode collides too easily for short generated names
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < sb.length(); i++) hash = (hash ^ sb.charAt(i)) * 0x100000001b3L;
+        return hash;
+    }
+
+    private static void appendFrameTypes(StringBuilder sb, List<Object> types, Map<LabelNode, Integer> labels) {
+        sb.append('[');
+        if (types != null)
+            types.forEach(type -> sb.append(type instanceof LabelNode labelNode ? "U" + labels.get(labelNode) : type).append(','));
+        sb.append(']');
+    }
+
     public static MethodNode findOrCreateInit(ClassNode classNode) {
         MethodNode clinit = findMethod(classNode, "<init>", "()V");
         if (clinit == null) {
@@ -191,6 +299,14 @@ public class ASMUtils implements Opcodes {
                 .orElse(null);
     }
 
+    public static FieldNode findField(ClassNode classNode, String name, String desc) {
+        return classNode.fields
+                .stream()
+                .filter(fieldNode -> name.equals(fieldNode.name) && desc.equals(fieldNode.desc))
+                .findAny()
+                .orElse(null);
+    }
+
     public static boolean isInvokeMethod(AbstractInsnNode insn, boolean includeInvokeDynamic) {
         return insn.getOpcode() >= INVOKEVIRTUAL && (includeInvokeDynamic ? insn.getOpcode() <= INVOKEDYNAMIC : insn.getOpcode() < INVOKEDYNAMIC);
     }
@@ -4,69 +4,106 @@ import cn.jeyor1337.bozarxd.obfuscator.Bozar;
 import cn.jeyor1337.bozarxd.obfuscator.transformer.impl.CrasherTransformer;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.util.CheckClassAdapter;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+// Verifies the data flow of every method against the hierarchy of the whole JAR plus the libraries.
+// Types are looked up in a ClassHierarchy, so no class is ever loaded or initialized and classes can be checked in parallel
 public class BozarClassVerifier {
 
-    public static boolean verify(Bozar bozar, Path path, ClassLoader parent, boolean ignoreErrors) throws IOException {
-        var classLoader = new URLClassLoader(new URL[] { path.toFile().toURI().toURL() }, parent);
-        var classes = new ArrayList<byte[]>();
+    public static boolean verify(Bozar bozar, Path path, ClassLoader libraryLoader, boolean ignoreErrors, Predicate<String> filter) throws IOException {
+        var classes = new ArrayList<ClassNode>();
 
         try (var jarInputStream = new ZipInputStream(Files.newInputStream(path))) {
             ZipEntry zipEntry;
             while ((zipEntry = jarInputStream.getNextEntry()) != null) {
                 if (zipEntry.getName().endsWith(".class")) {
-                    classes.add(StreamUtils.readAll(jarInputStream));
+                    ClassNode classNode = new ClassNode();
+                    new ClassReader(StreamUtils.readAll(jarInputStream)).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                    classes.add(classNode);
                 }
             }
         }
 
-        boolean allOK = true;
-        for (byte[] classBytes : classes) {
-            ClassReader reader = new ClassReader(classBytes);
-            ClassNode classNode = new ClassNode();
-            reader.accept(classNode, 0);
+        // Classes skipped below still take part in the hierarchy
+        final var hierarchy = new ClassHierarchy(classes, libraryLoader);
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        final var results = new ArrayList<VerifyResult>();
+        try {
+            for (ClassNode classNode : classes) {
+                if(classNode.methods.stream().anyMatch(methodNode -> methodNode.name.equals("\u0001") && methodNode.desc.equals("(\u0001/)L\u0001/;")))
+                    continue;
 
-            if(classNode.methods.stream().anyMatch(methodNode -> methodNode.name.equals("\u0001") && methodNode.desc.equals("(\u0001/)L\u0001/;")))
-                continue;
+                if(classNode.name.startsWith(CrasherTransformer.PACKAGE_NAME + CrasherTransformer.REPEAT_BASE.repeat(10)))
+                    continue;
 
-            if(classNode.name.startsWith(CrasherTransformer.PACKAGE_NAME + CrasherTransformer.REPEAT_BASE.repeat(10)))
-                continue;
+                if(!filter.test(classNode.name))
+                    continue;
 
-            try {
-                StringWriter stringWriter = new StringWriter();
-                PrintWriter printWriter = new PrintWriter(stringWriter);
-                CheckClassAdapter.verify(reader, classLoader, false, printWriter);
-                if (!stringWriter.toString().isEmpty()) {
+                results.add(new VerifyResult(classNode.name, executor.submit(() -> verifyClass(hierarchy, classNode))));
+            }
+
+            boolean allOK = true;
+            for (VerifyResult result : results) {
+                List<String> errors;
+                try {
+                    errors = result.errors().get();
+                } catch (ExecutionException e) {
                     if (ignoreErrors) {
-                        bozar.log("Warning: Verification failed for class: %s (ignored)", classNode.name);
+                        bozar.log("Warning: Verification threw exception for class: %s (ignored)", result.className());
                     } else {
                         allOK = false;
-                        bozar.err("Cannot verify class: %s", classNode.name);
-                        bozar.err(stringWriter.toString());
+                        bozar.err("Cannot verify class: %s", result.className());
+                        e.getCause().printStackTrace();
                     }
+                    continue;
                 }
-            } catch (Throwable t) {
-                if (ignoreErrors) {
-                    bozar.log("Warning: Verification threw exception for class: %s (ignored)", classNode.name);
-                } else {
-                    allOK = false;
-                    bozar.err("Cannot verify class: %s", classNode.name);
-                    t.printStackTrace();
+
+                if (!errors.isEmpty()) {
+                    if (ignoreErrors) {
+                        bozar.log("Warning: Verification failed for class: %s (ignored)", result.className());
+                    } else {
+                        allOK = false;
+                        bozar.err("Cannot verify class: %s", result.className());
+                        errors.forEach(error -> bozar.err(error));
+                    }
                 }
             }
+            return allOK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdown();
         }
-        return allOK;
     }
+
+    private static List<String> verifyClass(ClassHierarchy hierarchy, ClassNode classNode) {
+        final var errors = new ArrayList<String>();
+        final var verifier = new HierarchyVerifier(hierarchy, classNode);
+        for (MethodNode methodNode : classNode.methods) {
+            try {
+                new Analyzer<>(verifier).analyze(classNode.name, methodNode);
+            } catch (AnalyzerException e) {
+                errors.add(methodNode.name + methodNode.desc + ": " + e.getMessage());
+            }
+        }
+        return errors;
+    }
+
+    private record VerifyResult(String className, Future<List<String>> errors) { }
 }
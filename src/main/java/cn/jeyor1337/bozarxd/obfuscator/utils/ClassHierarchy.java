@@ -0,0 +1,87 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Type hierarchy backed by the in-memory classes plus class files of the library classpath, nothing is ever defined
+public class ClassHierarchy {
+
+    private record ClassInfo(String superName, List<String> interfaces, boolean isInterface) { }
+
+    private final Map<String, ClassInfo> classes = new HashMap<>();
+    private final Map<String, Optional<ClassInfo>> libraryClasses = new ConcurrentHashMap<>();
+    private final ClassLoader libraryLoader;
+
+    public ClassHierarchy(Collection<ClassNode> classNodes, ClassLoader libraryLoader) {
+        this.libraryLoader = libraryLoader;
+        for (ClassNode classNode : classNodes)
+            this.classes.put(classNode.name, new ClassInfo(classNode.superName, List.copyOf(classNode.interfaces), (classNode.access & Opcodes.ACC_INTERFACE) != 0));
+    }
+
+    private ClassInfo getInfo(String name) {
+        ClassInfo info = this.classes.get(name);
+        if (info != null) return info;
+
+        return this.libraryClasses.computeIfAbsent(name, key -> {
+            try (InputStream in = this.libraryLoader != null
+                    ? this.libraryLoader.getResourceAsStream(key + ".class")
+                    : ClassLoader.getSystemResourceAsStream(key + ".class")) {
+                if (in == null) return Optional.empty();
+                var reader = new ClassReader(in);
+                return Optional.of(new ClassInfo(reader.getSuperName(), List.of(reader.getInterfaces()), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+            } catch (IOException e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    public boolean isKnown(String name) {
+        return this.getInfo(name) != null;
+    }
+
+    public boolean isInterface(String name) {
+        ClassInfo info = this.getInfo(name);
+        return info != null && info.isInterface();
+    }
+
+    public String getSuperName(String name) {
+        ClassInfo info = this.getInfo(name);
+        return info == null ? null : info.superName();
+    }
+
+    // Whether a value of type sub can be assigned to type base
+    public boolean isAssignableFrom(String base, String sub) {
+        if (base.equals(sub) || base.equals("java/lang/Object")) return true;
+
+        final Deque<String> queue = new ArrayDeque<>(List.of(sub));
+        final Set<String> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            if (!visited.add(name)) continue;
+            if (name.equals(base)) return true;
+
+            ClassInfo info = this.getInfo(name);
+            if (info == null) continue;
+            if (info.superName() != null) queue.add(info.superName());
+            queue.addAll(info.interfaces());
+        }
+        return false;
+    }
+
+    public String getCommonSuperClass(String type1, String type2) {
+        if (this.isAssignableFrom(type1, type2)) return type1;
+        if (this.isAssignableFrom(type2, type1)) return type2;
+        if (this.isInterface(type1) || this.isInterface(type2)) return "java/lang/Object";
+
+        String superName = type1;
+        while ((superName = this.getSuperName(superName)) != null)
+            if (this.isAssignableFrom(superName, type2)) return superName;
+        return "java/lang/Object";
+    }
+}
@@ -0,0 +1,78 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.SimpleVerifier;
+
+import java.util.Set;
+
+// SimpleVerifier that resolves types through a ClassHierarchy instead of loading them
+public class HierarchyVerifier extends SimpleVerifier {
+
+    private static final Type NULL_TYPE = Type.getObjectType("null");
+    private static final Set<String> ARRAY_INTERFACES = Set.of("java/lang/Object", "java/lang/Cloneable", "java/io/Serializable");
+
+    private final ClassHierarchy hierarchy;
+
+    public HierarchyVerifier(ClassHierarchy hierarchy, ClassNode classNode) {
+        super(ASM9, Type.getObjectType(classNode.name),
+                classNode.superName == null ? null : Type.getObjectType(classNode.superName),
+                classNode.interfaces.stream().map(Type::getObjectType).toList(),
+                (classNode.access & ACC_INTERFACE) != 0);
+        this.hierarchy = hierarchy;
+    }
+
+    @Override
+    protected boolean isInterface(Type type) {
+        return type.getSort() == Type.OBJECT && this.hierarchy.isInterface(type.getInternalName());
+    }
+
+    @Override
+    protected Type getSuperClass(Type type) {
+        if (type.getSort() != Type.OBJECT) return Type.getObjectType("java/lang/Object");
+        String superName = this.hierarchy.getSuperName(type.getInternalName());
+        return superName == null ? null : Type.getObjectType(superName);
+    }
+
+    @Override
+    protected boolean isAssignableFrom(Type type1, Type type2) {
+        if (type1.equals(type2)) return true;
+        if (type2.equals(NULL_TYPE)) return type1.getSort() == Type.OBJECT || type1.getSort() == Type.ARRAY;
+
+        if (type1.getSort() == Type.ARRAY) {
+            if (type2.getSort() != Type.ARRAY) return false;
+            Type element1 = Type.getType(type1.getDescriptor().substring(1));
+            Type element2 = Type.getType(type2.getDescriptor().substring(1));
+            if (isReference(element1) && isReference(element2)) return this.isAssignableFrom(element1, element2);
+            return element1.equals(element2);
+        }
+        if (type2.getSort() == Type.ARRAY) return type1.getSort() == Type.OBJECT && ARRAY_INTERFACES.contains(type1.getInternalName());
+        if (type1.getSort() != Type.OBJECT || type2.getSort() != Type.OBJECT) return false;
+        return this.hierarchy.isAssignableFrom(type1.getInternalName(), type2.getInternalName());
+    }
+
+    @Override
+    protected boolean isSubTypeOf(BasicValue value, BasicValue expected) {
+        Type type = value.getType();
+        Type expectedType = expected.getType();
+        if (type == null || expectedType == null) return type == null && expectedType == null;
+        if (type.equals(expectedType)) return true;
+        if (!isReference(expectedType)) return false;
+        if (type.equals(NULL_TYPE)) return true;
+        if (!isReference(type)) return false;
+        if (this.isAssignableFrom(expectedType, type)) return true;
+
+        // Like the JVM verifier, any reference is accepted where an interface is expected
+        return this.isInterface(expectedType);
+    }
+
+    @Override
+    protected Class<?> getClass(Type type) {
+        throw new UnsupportedOperationException("Classes are never loaded: " + type);
+    }
+
+    private static boolean isReference(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY;
+    }
+}
@@ -0,0 +1,67 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+public class JfrProfile {
+
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+    // The sampled method and its direct caller are both charged, since call-site guards live in the caller
+    private static final int CHARGED_FRAMES = 2;
+
+    private final Map<String, Long> samples = new HashMap<>();
+    private long totalSamples;
+
+    private JfrProfile() { }
+
+    public static JfrProfile read(Path path) throws IOException {
+        final var profile = new JfrProfile();
+        try (var recording = new RecordingFile(path)) {
+            while (recording.hasMoreEvents()) {
+                var event = recording.readEvent();
+                if (!event.getEventType().getName().equals(EXECUTION_SAMPLE) || event.getStackTrace() == null) continue;
+
+                profile.totalSamples++;
+                List<RecordedFrame> frames = event.getStackTrace().getFrames();
+                Set<String> charged = new HashSet<>();
+                for (int i = 0; i < Math.min(CHARGED_FRAMES, frames.size()); i++) {
+                    RecordedFrame frame = frames.get(i);
+                    if (!frame.isJavaFrame()) continue;
+
+                    RecordedMethod method = frame.getMethod();
+                    String key = method.getType().getName().replace('.', '/') + "." + method.getName() + method.getDescriptor();
+                    if (charged.add(key)) profile.samples.merge(key, 1L, Long::sum);
+                }
+            }
+        }
+        return profile;
+    }
+
+    public long getTotalSamples() {
+        return this.totalSamples;
+    }
+
+    // Smallest set of methods of the given classes, hottest first, that make up the given share of their samples
+    public Set<String> getHotMethods(double coverage, Set<String> classNames) {
+        final List<Map.Entry<String, Long>> ranking = this.samples.entrySet().stream()
+                .filter(entry -> classNames.contains(entry.getKey().substring(0, entry.getKey().lastIndexOf('.', entry.getKey().indexOf('(')))))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .toList();
+        final long target = (long) Math.ceil(ranking.stream().mapToLong(Map.Entry::getValue).sum() * Math.max(0, Math.min(1, coverage)));
+
+        final Set<String> hotMethods = new HashSet<>();
+        long covered = 0;
+        for (Map.Entry<String, Long> entry : ranking) {
+            if (covered >= target) break;
+            hotMethods.add(entry.getKey());
+            covered += entry.getValue();
+        }
+        return hotMethods;
+    }
+}
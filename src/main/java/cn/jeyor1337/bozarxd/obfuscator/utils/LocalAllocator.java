@@ -0,0 +1,40 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hands out local variable slots for injected code directly above the locals a method already uses.
+// Create one per transformed method, slots stay valid as long as its maxLocals is only raised through here
+public class LocalAllocator {
+
+    private final MethodNode methodNode;
+    private final Map<Integer, Integer> scratchSlots = new HashMap<>();
+
+    public LocalAllocator(MethodNode methodNode) {
+        this.methodNode = methodNode;
+    }
+
+    // Slot for a value that is stored and read back within one injected snippet, shared by all snippets of that type
+    public int scratch(Type type) {
+        return this.scratchSlots.computeIfAbsent(getSlotKind(type), kind -> this.allocate(type));
+    }
+
+    // Slot owned by the caller for the whole method
+    public int allocate(Type type) {
+        final int slot = this.methodNode.maxLocals;
+        this.methodNode.maxLocals += type.getSize();
+        return slot;
+    }
+
+    // Types the verifier treats alike can share a slot
+    private static int getSlotKind(Type type) {
+        return switch (type.getSort()) {
+            case Type.BOOLEAN, Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> Type.INT;
+            case Type.ARRAY, Type.OBJECT -> Type.OBJECT;
+            default -> type.getSort();
+        };
+    }
+}
@@ -0,0 +1,154 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+public class LoopUtils implements Opcodes {
+
+    private LoopUtils() { }
+
+    // Instructions that belong to the body of any natural loop, i.e. the nodes of a back edge u -> h (h dominates u)
+    // that reach u without passing through h
+    public static Set<AbstractInsnNode> getLoopInstructions(MethodNode methodNode) {
+        final AbstractInsnNode[] insns = methodNode.instructions.toArray();
+        final int size = insns.length;
+        final Set<AbstractInsnNode> loopInsns = new HashSet<>();
+        if (size == 0) return loopInsns;
+
+        final List<List<Integer>> successors = getSuccessors(methodNode, insns);
+        final List<List<Integer>> predecessors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) predecessors.add(new ArrayList<>());
+        for (int i = 0; i < size; i++)
+            for (int succ : successors.get(i)) predecessors.get(succ).add(i);
+
+        final int[] order = getReversePostOrder(successors);
+        final int[] rpoIndex = new int[size];
+        Arrays.fill(rpoIndex, -1);
+        for (int i = 0; i < order.length; i++) rpoIndex[order[i]] = i;
+        final int[] idom = getImmediateDominators(order, rpoIndex, predecessors);
+
+        for (int node : order) {
+            for (int header : successors.get(node)) {
+                if (!dominates(idom, header, node)) continue;
+
+                final BitSet body = new BitSet(size);
+                final Deque<Integer> stack = new ArrayDeque<>();
+                body.set(header);
+                if (!body.get(node)) { body.set(node); stack.push(node); }
+                while (!stack.isEmpty()) {
+                    for (int pred : predecessors.get(stack.pop())) {
+                        if (rpoIndex[pred] < 0 || body.get(pred)) continue;
+                        body.set(pred);
+                        stack.push(pred);
+                    }
+                }
+                body.stream().forEach(i -> loopInsns.add(insns[i]));
+            }
+        }
+        return loopInsns;
+    }
+
+    static List<List<Integer>> getSuccessors(MethodNode methodNode, AbstractInsnNode[] insns) {
+        final InsnList instructions = methodNode.instructions;
+        final List<List<Integer>> successors = new ArrayList<>(insns.length);
+        for (int i = 0; i < insns.length; i++) {
+            final List<Integer> succ = new ArrayList<>(2);
+            final AbstractInsnNode insn = insns[i];
+            final int op = insn.getOpcode();
+
+            if (insn instanceof JumpInsnNode jump) {
+                succ.add(instructions.indexOf(jump.label));
+                if (op != GOTO && i + 1 < insns.length) succ.add(i + 1);
+            } else if (insn instanceof TableSwitchInsnNode tableSwitch) {
+                succ.add(instructions.indexOf(tableSwitch.dflt));
+                tableSwitch.labels.forEach(label -> succ.add(instructions.indexOf(label)));
+            } else if (insn instanceof LookupSwitchInsnNode lookupSwitch) {
+                succ.add(instructions.indexOf(lookupSwitch.dflt));
+                lookupSwitch.labels.forEach(label -> succ.add(instructions.indexOf(label)));
+            } else if (!((op >= IRETURN && op <= RETURN) || op == ATHROW || op == RET) && i + 1 < insns.length) {
+                succ.add(i + 1);
+            }
+            successors.add(succ);
+        }
+
+        if (methodNode.tryCatchBlocks != null) {
+            for (TryCatchBlockNode tcb : methodNode.tryCatchBlocks) {
+                int handler = instructions.indexOf(tcb.handler);
+                for (int i = instructions.indexOf(tcb.start); i < instructions.indexOf(tcb.end); i++)
+                    successors.get(i).add(handler);
+            }
+        }
+        return successors;
+    }
+
+    private static int[] getReversePostOrder(List<List<Integer>> successors) {
+        final int size = successors.size();
+        final boolean[] visited = new boolean[size];
+        final int[] postOrder = new int[size];
+        int count = 0;
+
+        final Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[] { 0, 0 });
+        visited[0] = true;
+        while (!stack.isEmpty()) {
+            final int[] top = stack.peek();
+            final List<Integer> succ = successors.get(top[0]);
+            if (top[1] < succ.size()) {
+                int next = succ.get(top[1]++);
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack.push(new int[] { next, 0 });
+                }
+            } else {
+                postOrder[count++] = stack.pop()[0];
+            }
+        }
+
+        final int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = postOrder[count - 1 - i];
+        return order;
+    }
+
+    // Cooper, Harvey & Kennedy, "A Simple, Fast Dominance Algorithm"
+    private static int[] getImmediateDominators(int[] order, int[] rpoIndex, List<List<Integer>> predecessors) {
+        final int[] idom = new int[rpoIndex.length];
+        Arrays.fill(idom, -1);
+        idom[order[0]] = order[0];
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                final int node = order[i];
+                int newIdom = -1;
+                for (int pred : predecessors.get(node)) {
+                    if (idom[pred] < 0) continue;
+                    newIdom = newIdom < 0 ? pred : intersect(idom, rpoIndex, pred, newIdom);
+                }
+                if (newIdom >= 0 && idom[node] != newIdom) {
+                    idom[node] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    private static int intersect(int[] idom, int[] rpoIndex, int a, int b) {
+        while (a != b) {
+            while (rpoIndex[a] > rpoIndex[b]) a = idom[a];
+            while (rpoIndex[b] > rpoIndex[a]) b = idom[b];
+        }
+        return a;
+    }
+
+    private static boolean dominates(int[] idom, int dominator, int node) {
+        while (true) {
+            if (node == dominator) return true;
+            if (idom[node] == node || idom[node] < 0) return false;
+            node = idom[node];
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class MappingFile {
+
+    private static final int MAGIC = 0x425A4D50;
+    private static final short VERSION = 1;
+
+    public record MemberMapping(String obfName, String originalName, String desc) {
+        public boolean isMethod() {
+            return this.desc != null;
+        }
+    }
+
+    public record ClassMapping(String obfName, String originalName, List<MemberMapping> members) { }
+
+    private final Map<String, ClassMapping> classes = new LinkedHashMap<>();
+
+    public Collection<ClassMapping> getClasses() {
+        return Collections.unmodifiableCollection(this.classes.values());
+    }
+
+    private ClassMapping getOrCreate(String obfName, String originalName) {
+        return this.classes.computeIfAbsent(obfName, k -> new ClassMapping(obfName, originalName, new ArrayList<>()));
+    }
+
+    public static MappingFile fromRemap(Map<String, String> map) {
+        final var mappingFile = new MappingFile();
+
+        map.entrySet().stream()
+                .filter(entry -> !entry.getKey().contains("."))
+                .forEach(entry -> mappingFile.getOrCreate(entry.getValue(), entry.getKey()));
+
+        map.forEach((key, value) -> {
+            int descIndex = key.indexOf('(');
+            int dotIndex = descIndex >= 0 ? key.lastIndexOf('.', descIndex) : key.lastIndexOf('.');
+            if (dotIndex < 0) return;
+
+            String owner = key.substring(0, dotIndex);
+            String name = descIndex >= 0 ? key.substring(dotIndex + 1, descIndex) : key.substring(dotIndex + 1);
+            String desc = descIndex >= 0 ? key.substring(descIndex) : null;
+            mappingFile.getOrCreate(map.getOrDefault(owner, owner), owner).members().add(new MemberMapping(value, name, desc));
+        });
+        return mappingFile;
+    }
+
+    public void write(Path path) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+
+            out.writeInt(this.classes.size());
+            for (ClassMapping classMapping : this.classes.values()) {
+                out.writeUTF(classMapping.obfName());
+                out.writeUTF(classMapping.originalName());
+            }
+
+            out.writeInt(this.classes.values().stream().mapToInt(classMapping -> classMapping.members().size()).sum());
+            int classIndex = 0;
+            for (ClassMapping classMapping : this.classes.values()) {
+                for (MemberMapping member : classMapping.members()) {
+                    out.writeInt(classIndex);
+                    out.writeUTF(member.obfName());
+                    out.writeUTF(member.originalName());
+                    out.writeBoolean(member.isMethod());
+                    if (member.isMethod()) out.writeUTF(member.desc());
+                }
+                classIndex++;
+            }
+        }
+    }
+
+    public static MappingFile read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a mapping file: " + path);
+            short version = in.readShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported mapping version: " + version);
+
+            final var mappingFile = new MappingFile();
+            final var index = new ArrayList<ClassMapping>();
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++)
+                index.add(mappingFile.getOrCreate(in.readUTF(), in.readUTF()));
+
+            int memberCount = in.readInt();
+            for (int i = 0; i < memberCount; i++) {
+                ClassMapping owner = index.get(in.readInt());
+                String obfName = in.readUTF();
+                String originalName = in.readUTF();
+                String desc = in.readBoolean() ? in.readUTF() : null;
+                owner.members().add(new MemberMapping(obfName, originalName, desc));
+            }
+            return mappingFile;
+        }
+    }
+}
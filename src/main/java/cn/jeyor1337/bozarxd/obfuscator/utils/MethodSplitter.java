@@ -0,0 +1,326 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.*;
+
+import java.util.*;
+
+// Outlines straight-line regions of a method into private static helpers of the same class
+public class MethodSplitter implements Opcodes {
+
+    // Smaller regions do not pay for the call that replaces them
+    private static final int MIN_REGION_SIZE = 64;
+    // Room for the return sequence of a helper
+    private static final int HELPER_OVERHEAD = 16;
+    private static final int MAX_ROUNDS = 4;
+    private static final int MAX_ATTEMPTS = 8;
+
+    // A region leaves the operand stack below its start untouched and either pushes one value or writes one live local
+    private record Region(int start, int end, List<Integer> params, int result, boolean pushes) { }
+
+    private static class DepthFrame extends Frame<BasicValue> {
+        private int minDepth;
+
+        private DepthFrame(Frame<BasicValue> frame) {
+            super(frame);
+            this.minDepth = frame.getStackSize();
+        }
+
+        @Override
+        public BasicValue pop() {
+            BasicValue value = super.pop();
+            this.minDepth = Math.min(this.minDepth, this.getStackSize());
+            return value;
+        }
+    }
+
+    private MethodSplitter() { }
+
+    // Splits the method until its code fits in targetSize and adds the helpers to the given list,
+    // returns false and leaves the method untouched if that is not possible
+    public static boolean split(ClassNode classNode, MethodNode methodNode, ClassHierarchy hierarchy, int targetSize, List<MethodNode> helpers) {
+        if ((classNode.access & ACC_INTERFACE) != 0 || methodNode.name.equals("<init>")) return false;
+        final AbstractInsnNode[] insns = methodNode.instructions.toArray();
+        if (Arrays.stream(insns).anyMatch(insn -> insn.getOpcode() == JSR || insn.getOpcode() == RET)) return false;
+
+        final MethodNode snapshot = ASMUtils.copyCode(methodNode);
+        final List<MethodNode> created = new ArrayList<>();
+        try {
+            for (int round = 0; round < MAX_ROUNDS && ASMUtils.getCodeSize(methodNode) > targetSize; round++) {
+                final int count = created.size();
+                splitOnce(classNode, methodNode, hierarchy, targetSize, helpers, created);
+                if (created.size() == count) break;
+            }
+        } catch (AnalyzerException ignored) { }
+
+        if (ASMUtils.getCodeSize(methodNode) > targetSize) {
+            ASMUtils.restoreCode(methodNode, snapshot);
+            return false;
+        }
+
+        // Ranges of local variables may now start or end in a helper
+        methodNode.localVariables = null;
+        methodNode.visibleLocalVariableAnnotations = null;
+        methodNode.invisibleLocalVariableAnnotations = null;
+        helpers.addAll(created);
+        return true;
+    }
+
+    private static void splitOnce(ClassNode classNode, MethodNode methodNode, ClassHierarchy hierarchy, int targetSize,
+                                  List<MethodNode> helpers, List<MethodNode> created) throws AnalyzerException {
+        final var verifier = new HierarchyVerifier(hierarchy, classNode);
+        final Frame<BasicValue>[] frames = new Analyzer<>(verifier).analyzeAndComputeMaxs(classNode.name, methodNode);
+        final InsnList instructions = methodNode.instructions;
+        final AbstractInsnNode[] insns = instructions.toArray();
+        final int size = insns.length;
+        final BitSet[] liveIn = getLiveLocals(methodNode, insns);
+
+        final int[] sizes = new int[size], minDepths = new int[size], nextReal = new int[size + 1];
+        nextReal[size] = size;
+        for (int i = size - 1; i >= 0; i--) {
+            final var cse = new CodeSizeEvaluator(null);
+            insns[i].accept(cse);
+            sizes[i] = cse.getMaxSize();
+            nextReal[i] = insns[i].getOpcode() >= 0 ? i : nextReal[i + 1];
+
+            // Lowest operand stack depth reached while executing the instruction
+            if (frames[i] == null || insns[i].getOpcode() < 0) {
+                minDepths[i] = frames[i] == null ? 0 : frames[i].getStackSize();
+                continue;
+            }
+            final var frame = new DepthFrame(frames[i]);
+            frame.execute(insns[i], verifier);
+            minDepths[i] = frame.minDepth;
+        }
+
+        // Labels that may only be jumped to from inside a region, with the range of their references
+        final Set<LabelNode> tryCatchLabels = new HashSet<>();
+        methodNode.tryCatchBlocks.forEach(tcb -> tryCatchLabels.addAll(List.of(tcb.start, tcb.end, tcb.handler)));
+        final Map<LabelNode, int[]> references = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+            getTargets(insns[i]).forEach(label -> references.merge(label, new int[] { index, index },
+                    (a, b) -> new int[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) }));
+        }
+
+        final int chunkLimit = Math.min(targetSize, 65535) - HELPER_OVERHEAD;
+        final int excess = ASMUtils.getCodeSize(methodNode) - targetSize;
+        final List<Region> regions = new ArrayList<>();
+        int reduced = 0;
+        for (int start = 0; start < size && reduced <= excess; start++) {
+            if (insns[start].getOpcode() < 0 || frames[start] == null) continue;
+
+            final int depth = frames[start].getStackSize();
+            final List<Integer> ends = new ArrayList<>();
+            int regionSize = 0, maxReference = -1, maxTarget = -1;
+            for (int i = start; i < size; i++) {
+                if (i > start && regionSize >= MIN_REGION_SIZE && frames[i] != null && frames[i].getStackSize() - depth <= 1
+                        && maxReference < i && maxTarget < nextReal[i])
+                    ends.add(i);
+
+                final AbstractInsnNode insn = insns[i];
+                if (isBarrier(classNode, hierarchy, insn) || (frames[i] != null && minDepths[i] < depth)) break;
+                if ((regionSize += sizes[i]) > chunkLimit) break;
+                if (insn instanceof LabelNode label) {
+                    if (tryCatchLabels.contains(label)) break;
+                    int[] range = references.get(label);
+                    if (range != null && range[0] < start) break;
+                    if (range != null) maxReference = Math.max(maxReference, range[1]);
+                }
+
+                boolean backwards = false;
+                for (LabelNode target : getTargets(insn)) {
+                    int index = instructions.indexOf(target);
+                    backwards |= index < start;
+                    maxTarget = Math.max(maxTarget, index);
+                }
+                if (backwards) break;
+            }
+
+            Region region = null;
+            for (int i = ends.size() - 1; i >= Math.max(0, ends.size() - MAX_ATTEMPTS) && region == null; i--)
+                region = getRegion(methodNode, insns, frames, liveIn, start, ends.get(i));
+            if (region == null) continue;
+
+            regions.add(region);
+            for (int i = region.start(); i < region.end(); i++) reduced += sizes[i];
+            reduced -= 3 + 2 * region.params().size() + (region.result() < 0 ? 0 : 2);
+            start = region.end() - 1;
+        }
+
+        for (Region region : regions)
+            created.add(outline(classNode, methodNode, insns, frames, nextReal, region, helpers, created));
+    }
+
+    private static Region getRegion(MethodNode methodNode, AbstractInsnNode[] insns, Frame<BasicValue>[] frames, BitSet[] liveIn, int start, int end) {
+        final BitSet referenced = new BitSet(), written = new BitSet();
+        int news = 0, inits = 0;
+        for (int i = start; i < end; i++) {
+            if (insns[i] instanceof VarInsnNode varInsn) {
+                referenced.set(varInsn.var);
+                if (varInsn.getOpcode() >= ISTORE) written.set(varInsn.var);
+            } else if (insns[i] instanceof IincInsnNode iinc) {
+                referenced.set(iinc.var);
+                written.set(iinc.var);
+            } else if (insns[i].getOpcode() == NEW) news++;
+            else if (insns[i] instanceof MethodInsnNode methodInsn && methodInsn.name.equals("<init>")) inits++;
+        }
+        // An object must not leave the helper before its constructor ran
+        if (news != inits) return null;
+
+        final boolean pushes = frames[end].getStackSize() > frames[start].getStackSize();
+        final BitSet params = (BitSet) referenced.clone();
+        params.and(liveIn[start]);
+        final BitSet results = (BitSet) written.clone();
+        results.and(liveIn[end]);
+        if (results.cardinality() > (pushes ? 0 : 1)) return null;
+        if (pushes && getType(frames[end].getStack(frames[end].getStackSize() - 1)) == null) return null;
+
+        // A handler covering the region would see locals the helper wrote in its own frame
+        for (TryCatchBlockNode tcb : methodNode.tryCatchBlocks) {
+            int tcbStart = methodNode.instructions.indexOf(tcb.start), tcbEnd = methodNode.instructions.indexOf(tcb.end);
+            if (tcbStart <= start && start < tcbEnd && written.intersects(liveIn[methodNode.instructions.indexOf(tcb.handler)]))
+                return null;
+        }
+
+        int slots = 0;
+        for (int param = params.nextSetBit(0); param >= 0; param = params.nextSetBit(param + 1)) {
+            Type type = getType(frames[start].getLocal(param));
+            if (type == null) return null;
+            slots += type.getSize();
+        }
+        final int result = results.nextSetBit(0);
+        if (slots > 255 || (result >= 0 && getType(frames[end].getLocal(result)) == null)) return null;
+        return new Region(start, end, params.stream().boxed().toList(), result, pushes);
+    }
+
+    private static MethodNode outline(ClassNode classNode, MethodNode methodNode, AbstractInsnNode[] insns, Frame<BasicValue>[] frames,
+                                      int[] nextReal, Region region, List<MethodNode> helpers, List<MethodNode> created) {
+        final Frame<BasicValue> endFrame = frames[region.end()];
+        final List<Type> paramTypes = region.params().stream().map(param -> getType(frames[region.start()].getLocal(param))).toList();
+        final Type resultType = region.pushes() ? getType(endFrame.getStack(endFrame.getStackSize() - 1))
+                : region.result() >= 0 ? getType(endFrame.getLocal(region.result())) : Type.VOID_TYPE;
+        final String desc = Type.getMethodDescriptor(resultType, paramTypes.toArray(new Type[0]));
+
+        final String base = (methodNode.name.startsWith("<") ? "static" : methodNode.name) + "$split";
+        String name;
+        int counter = 0;
+        do {
+            name = base + counter++;
+        } while (isTaken(classNode, helpers, created, name, desc));
+
+        final var helper = new MethodNode(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, name, desc, null, null);
+        final Map<Integer, Integer> slots = new HashMap<>();
+        int nextSlot = 0;
+        for (int i = 0; i < paramTypes.size(); i++) {
+            slots.put(region.params().get(i), nextSlot);
+            nextSlot += paramTypes.get(i).getSize();
+        }
+        for (int i = region.start(); i < region.end(); i++) {
+            int var = insns[i] instanceof VarInsnNode varInsn ? varInsn.var : insns[i] instanceof IincInsnNode iinc ? iinc.var : -1;
+            if (var < 0 || slots.containsKey(var)) continue;
+            slots.put(var, nextSlot);
+            // Locals of the region may hold a long or a double at any point
+            nextSlot += 2;
+        }
+
+        final LabelNode exit = new LabelNode();
+        final Map<LabelNode, LabelNode> labels = new HashMap<>();
+        for (int i = region.start(); i < nextReal[region.end()]; i++)
+            if (insns[i] instanceof LabelNode label) labels.put(label, i < region.end() ? new LabelNode() : exit);
+
+        for (int i = region.start(); i < region.end(); i++) {
+            final AbstractInsnNode insn = insns[i];
+            if (insn instanceof FrameNode || (insn instanceof LineNumberNode line && !labels.containsKey(line.start))) continue;
+
+            final AbstractInsnNode copy = insn.clone(labels);
+            if (copy instanceof VarInsnNode varInsn) varInsn.var = slots.get(varInsn.var);
+            else if (copy instanceof IincInsnNode iinc) iinc.var = slots.get(iinc.var);
+            helper.instructions.add(copy);
+        }
+        helper.instructions.add(exit);
+        if (region.result() >= 0) helper.instructions.add(new VarInsnNode(resultType.getOpcode(ILOAD), slots.get(region.result())));
+        helper.instructions.add(new InsnNode(resultType.getOpcode(IRETURN)));
+        helper.maxLocals = Math.max(nextSlot, 1);
+        helper.maxStack = Math.max(methodNode.maxStack, resultType.getSize());
+
+        final InsnList call = new InsnList();
+        for (int i = 0; i < paramTypes.size(); i++)
+            call.add(new VarInsnNode(paramTypes.get(i).getOpcode(ILOAD), region.params().get(i)));
+        call.add(new MethodInsnNode(INVOKESTATIC, classNode.name, name, desc, false));
+        if (region.result() >= 0) call.add(new VarInsnNode(resultType.getOpcode(ISTORE), region.result()));
+        methodNode.instructions.insertBefore(insns[region.start()], call);
+        for (int i = region.start(); i < region.end(); i++) methodNode.instructions.remove(insns[i]);
+        return helper;
+    }
+
+    // Locals that are read before being written on some path starting at each instruction
+    private static BitSet[] getLiveLocals(MethodNode methodNode, AbstractInsnNode[] insns) {
+        final List<List<Integer>> successors = LoopUtils.getSuccessors(methodNode, insns);
+        final BitSet[] liveIn = new BitSet[insns.length];
+        for (int i = 0; i < insns.length; i++) liveIn[i] = new BitSet();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = insns.length - 1; i >= 0; i--) {
+                final BitSet live = new BitSet();
+                successors.get(i).forEach(succ -> live.or(liveIn[succ]));
+                if (insns[i] instanceof VarInsnNode varInsn) {
+                    if (varInsn.getOpcode() >= ISTORE) live.clear(varInsn.var);
+                    else live.set(varInsn.var);
+                } else if (insns[i] instanceof IincInsnNode iinc) live.set(iinc.var);
+
+                if (!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+        return liveIn;
+    }
+
+    private static List<LabelNode> getTargets(AbstractInsnNode insn) {
+        if (insn instanceof JumpInsnNode jump) return List.of(jump.label);
+        final List<LabelNode> targets = new ArrayList<>();
+        if (insn instanceof TableSwitchInsnNode tableSwitch) {
+            targets.add(tableSwitch.dflt);
+            targets.addAll(tableSwitch.labels);
+        } else if (insn instanceof LookupSwitchInsnNode lookupSwitch) {
+            targets.add(lookupSwitch.dflt);
+            targets.addAll(lookupSwitch.labels);
+        }
+        return targets;
+    }
+
+    // Instructions that cannot move into another frame
+    private static boolean isBarrier(ClassNode classNode, ClassHierarchy hierarchy, AbstractInsnNode insn) {
+        final int op = insn.getOpcode();
+        if (insn instanceof FieldInsnNode fieldInsn && (op == PUTSTATIC || op == PUTFIELD) && fieldInsn.owner.equals(classNode.name)) {
+            // Final fields may only be assigned by the initializer itself
+            FieldNode fieldNode = ASMUtils.findField(classNode, fieldInsn.name, fieldInsn.desc);
+            return fieldNode == null || (fieldNode.access & ACC_FINAL) != 0;
+        }
+        // Code that inspects its own stack would see the helper frame
+        if (insn instanceof TypeInsnNode typeInsn && op == NEW && hierarchy.isAssignableFrom("java/lang/Throwable", typeInsn.desc)) return true;
+        if (insn instanceof MethodInsnNode methodInsn) {
+            if (methodInsn.name.equals("getStackTrace") || methodInsn.owner.equals("java/lang/StackWalker")) return true;
+            if (op == INVOKESPECIAL && !methodInsn.name.equals("<init>")) return true;
+        }
+        return (op >= IRETURN && op <= RETURN) || op == MONITORENTER || op == MONITOREXIT;
+    }
+
+    private static Type getType(BasicValue value) {
+        final Type type = value.getType();
+        return type == null || type.getInternalName().equals("null") ? null : type;
+    }
+
+    private static boolean isTaken(ClassNode classNode, List<MethodNode> helpers, List<MethodNode> created, String name, String desc) {
+        return classNode.methods.stream().anyMatch(m -> m.name.equals(name) && m.desc.equals(desc))
+                || helpers.stream().anyMatch(m -> m.name.equals(name) && m.desc.equals(desc))
+                || created.stream().anyMatch(m -> m.name.equals(name) && m.desc.equals(desc));
+    }
+}
@@ -0,0 +1,155 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+// Removes leftovers of the transformers that no decompiler shows, so they only cost size.
+// Pushed and popped strings stay, they are the payload of the anti prompt and watermark transformers
+public class PeepholeOptimizer implements Opcodes {
+
+    private PeepholeOptimizer() { }
+
+    // Returns whether the method was changed
+    public static boolean optimize(ClassNode classNode, MethodNode methodNode) {
+        final AbstractInsnNode[] insns = methodNode.instructions.toArray();
+        if (insns.length == 0 || Arrays.stream(insns).anyMatch(insn -> insn.getOpcode() == JSR || insn.getOpcode() == RET)) return false;
+
+        boolean changed = false, progress;
+        do {
+            progress = removeUnreachable(classNode, methodNode);
+            progress |= removePushPops(methodNode);
+            progress |= threadJumps(methodNode);
+            progress |= removeRedundantGotos(methodNode);
+            progress |= removeEmptyTryCatchBlocks(methodNode);
+            changed |= progress;
+        } while (progress);
+        return removeDuplicateFrames(methodNode) | changed;
+    }
+
+    // NOPs and unreachable code, which ClassWriter would fill with NOPs and an ATHROW of the same size
+    private static boolean removeUnreachable(ClassNode classNode, MethodNode methodNode) {
+        final AbstractInsnNode[] insns = methodNode.instructions.toArray();
+        final Frame<BasicValue>[] frames;
+        try {
+            frames = new Analyzer<>(new BasicInterpreter()).analyzeAndComputeMaxs(classNode.name, methodNode);
+        } catch (AnalyzerException e) {
+            return false;
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < insns.length; i++) {
+            if (insns[i].getOpcode() == NOP || (frames[i] == null && insns[i].getOpcode() >= 0)) {
+                methodNode.instructions.remove(insns[i]);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // A side effect free push directly followed by a pop of the same size
+    private static boolean removePushPops(MethodNode methodNode) {
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            final AbstractInsnNode next = insn.getNext();
+            if (next == null || getPushSize(insn) == 0) continue;
+            if ((next.getOpcode() == POP && getPushSize(insn) == 1) || (next.getOpcode() == POP2 && getPushSize(insn) == 2)) {
+                methodNode.instructions.remove(insn);
+                methodNode.instructions.remove(next);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static int getPushSize(AbstractInsnNode insn) {
+        return switch (insn.getOpcode()) {
+            case ACONST_NULL, ICONST_M1, ICONST_0, ICONST_1, ICONST_2, ICONST_3, ICONST_4, ICONST_5,
+                 FCONST_0, FCONST_1, FCONST_2, BIPUSH, SIPUSH, ILOAD, FLOAD, ALOAD, DUP -> 1;
+            case LCONST_0, LCONST_1, DCONST_0, DCONST_1, LLOAD, DLOAD -> 2;
+            // Strings are payloads, class and dynamic constants may fail to resolve
+            case LDC -> switch (((LdcInsnNode) insn).cst) {
+                case Integer ignored -> 1;
+                case Float ignored -> 1;
+                case Long ignored -> 2;
+                case Double ignored -> 2;
+                default -> 0;
+            };
+            default -> 0;
+        };
+    }
+
+    // Jumps to a GOTO go straight to its target
+    private static boolean threadJumps(MethodNode methodNode) {
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (!(insn instanceof JumpInsnNode jump) || jump.getOpcode() == JSR) continue;
+            final LabelNode target = getFinalTarget(jump.label);
+            if (target != jump.label) {
+                jump.label = target;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static LabelNode getFinalTarget(LabelNode label) {
+        final Set<LabelNode> visited = new HashSet<>();
+        LabelNode target = label;
+        while (visited.add(target)) {
+            if (!(getNextReal(target) instanceof JumpInsnNode jump) || jump.getOpcode() != GOTO) return target;
+            target = jump.label;
+        }
+        // GOTOs in a cycle are an endless loop that is left as it is
+        return label;
+    }
+
+    private static boolean removeRedundantGotos(MethodNode methodNode) {
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn.getOpcode() != GOTO) continue;
+            final LabelNode target = ((JumpInsnNode) insn).label;
+            for (AbstractInsnNode next = insn.getNext(); next != null && next.getOpcode() < 0; next = next.getNext()) {
+                if (next == target) {
+                    methodNode.instructions.remove(insn);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean removeEmptyTryCatchBlocks(MethodNode methodNode) {
+        return methodNode.tryCatchBlocks != null && methodNode.tryCatchBlocks.removeIf(tcb -> getNextReal(tcb.start) == null
+                || methodNode.instructions.indexOf(getNextReal(tcb.start)) >= methodNode.instructions.indexOf(tcb.end));
+    }
+
+    // Only the last of several frames at one position is written
+    private static boolean removeDuplicateFrames(MethodNode methodNode) {
+        boolean changed = false;
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (!(insn instanceof FrameNode)) continue;
+            AbstractInsnNode next = insn.getNext();
+            while (next instanceof LabelNode || next instanceof LineNumberNode) next = next.getNext();
+            if (next instanceof FrameNode) {
+                methodNode.instructions.remove(insn);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static AbstractInsnNode getNextReal(AbstractInsnNode insn) {
+        while (insn != null && insn.getOpcode() < 0) insn = insn.getNext();
+        return insn;
+    }
+}
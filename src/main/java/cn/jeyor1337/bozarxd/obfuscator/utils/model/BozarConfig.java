@@ -84,6 +84,11 @@ public class BozarConfig {
         private final ParamObfuscationOption paramObfuscation;
         private final boolean ignoreVerifyErrors;
         private final WatermarkOptions watermarkOptions;
+        private final PerformanceOptions performanceOptions;
+
+        public PerformanceOptions getPerformanceOptions() {
+            return this.performanceOptions != null ? this.performanceOptions : new PerformanceOptions();
+        }
 
         @Getter
         @AllArgsConstructor
@@ -99,6 +104,54 @@ public class BozarConfig {
             private final String zipCommentText;
             private final String badAnnoText;
         }
+
+        @Getter
+        public static class PerformanceOptions {
+            public enum RepackageOption {
+                @SerializedName("Flatten") FLATTEN,
+                @SerializedName("Keep") KEEP,
+                @SerializedName("Short") SHORT,
+                @SerializedName("Single") SINGLE
+            }
+
+            public enum LoopPolicy {
+                @SerializedName("Skip") SKIP,
+                @SerializedName("Light") LIGHT,
+                @SerializedName("Full") FULL
+            }
+
+            public enum VerificationLevel {
+                @SerializedName("Off") OFF,
+                @SerializedName("Structural") STRUCTURAL,
+                @SerializedName("Dataflow") DATAFLOW,
+                @SerializedName("Full") FULL
+            }
+
+            private boolean frequencyRenaming = false;
+            private RepackageOption repackage = RepackageOption.FLATTEN;
+            private String repackageName = "a";
+            private String mappingFile = "";
+            private boolean foldablePredicates = false;
+            private LoopPolicy constantLoopPolicy = LoopPolicy.FULL;
+            private LoopPolicy controlFlowLoopPolicy = LoopPolicy.FULL;
+            private LoopPolicy antiPromptLoopPolicy = LoopPolicy.FULL;
+            private String profile = "";
+            private double hotMethodCoverage = 0.8;
+            private int jitSizeBudget = 0;
+            private int methodCostBudget = 0;
+            private double methodCostRatio = 0;
+            private boolean methodSplitting = false;
+            private boolean constantDynamicStrings = false;
+            private boolean sharedStringRuntime = false;
+            private boolean hoistedNumberConstants = false;
+            private boolean removeParamBridges = false;
+            private int paramInlineSize = 0;
+            private boolean allocationFreeAntiPrompt = false;
+            private boolean keepOriginalFrames = false;
+            private VerificationLevel verification = VerificationLevel.FULL;
+            private double verificationSampleRate = 1;
+            private boolean peepholeOptimization = false;
+        }
     }
 
     public static record EnableType(Supplier<Boolean> isEnabled, Object type) { }
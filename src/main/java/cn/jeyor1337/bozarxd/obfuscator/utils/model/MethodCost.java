@@ -0,0 +1,28 @@
+package cn.jeyor1337.bozarxd.obfuscator.utils.model;
+
+import cn.jeyor1337.bozarxd.obfuscator.utils.ASMUtils;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+public record MethodCost(int bytes, int allocations, int calls) implements Opcodes {
+
+    // Rough runtime weight of one allocation and one call, expressed in bytecode bytes
+    private static final int ALLOCATION_WEIGHT = 16;
+    private static final int CALL_WEIGHT = 8;
+
+    public static MethodCost of(MethodNode methodNode) {
+        int allocations = 0, calls = 0;
+        for (AbstractInsnNode insn : methodNode.instructions) {
+            switch (insn.getOpcode()) {
+                case NEW, NEWARRAY, ANEWARRAY, MULTIANEWARRAY -> allocations++;
+                case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE, INVOKEDYNAMIC -> calls++;
+            }
+        }
+        return new MethodCost(ASMUtils.getCodeSize(methodNode), allocations, calls);
+    }
+
+    public int weight() {
+        return this.bytes + this.allocations * ALLOCATION_WEIGHT + this.calls * CALL_WEIGHT;
+    }
+}
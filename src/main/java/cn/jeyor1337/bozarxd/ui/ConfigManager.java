@@ -23,6 +23,7 @@ import java.nio.file.Path;
 public class ConfigManager {
 
     private final Controller controller;
+    private BozarConfig.BozarOptions.PerformanceOptions performanceOptions = new BozarConfig.BozarOptions.PerformanceOptions();
 
     public void loadConfig(File file) throws IOException {
         String str = Files.readString(file.toPath());
@@ -84,6 +85,8 @@ public class ConfigManager {
         c.getTextInputControl(UnusedStringTransformer.class).setText(bozarConfig.getOptions().getWatermarkOptions().getLdcPopText());
         c.getTextInputControl(ZipCommentTransformer.class).setText(bozarConfig.getOptions().getWatermarkOptions().getZipCommentText());
         c.getTextInputControl(BadAnnoTransformer.class).setText(bozarConfig.getOptions().getWatermarkOptions().getBadAnnoText());
+
+        this.performanceOptions = bozarConfig.getOptions().getPerformanceOptions();
     }
 
     public void saveConfig(BozarConfig bozarConfig) throws IOException {
@@ -137,7 +140,8 @@ public class ConfigManager {
                 c.getCheckBox(InvokeDynamicTransformer.class).isSelected(),
                 (BozarConfig.BozarOptions.ParamObfuscationOption) c.getEnum(ParamObfTransformer.class),
                 false,
-                watermarkOptions
+                watermarkOptions,
+                this.performanceOptions
         );
         BozarConfig bozarConfig = new BozarConfig(c.input.getText(), c.output.getText(), c.exclude.getText(), this.controller.libraries.getItems(), bozarOptions);
 
@@ -213,7 +217,8 @@ public class ConfigManager {
                 false,
                 BozarConfig.BozarOptions.ParamObfuscationOption.OFF,
                 false,
-                watermarkOptions
+                watermarkOptions,
+                new BozarConfig.BozarOptions.PerformanceOptions()
         );
 
         return new BozarConfig(
@@ -254,7 +259,8 @@ public class ConfigManager {
                 false,
                 BozarConfig.BozarOptions.ParamObfuscationOption.LIGHT,
                 false,
-                watermarkOptions
+                watermarkOptions,
+                new BozarConfig.BozarOptions.PerformanceOptions()
         );
 
         BozarConfig templateConfig = new BozarConfig(
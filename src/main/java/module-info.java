@@ -8,6 +8,7 @@ module cn.jeyor1337.bozarxd {
     requires java.desktop;
     requires java.net.http;
     requires java.scripting;
+    requires jdk.jfr;
     requires org.objectweb.asm.commons;
     requires org.objectweb.asm.util;
     requires static lombok;